@@ -15,12 +15,14 @@ public interface Controller {
   Config getConfig();
   String getEmailAddress() throws GmailServiceException;
   SortedMap<String, String> getIdToLabel();
+  void invalidateLabels();
   DefaultArtifactVersion getLatestVersion();
   String getOrCreateDownloadedLabelId();
   String getOrCreateRemovedLabelId();
-  LongTask<ProcessEmailResult> getProcessTask(Email email, ProcessSettings processSettings);
+  ProcessEmailsTask getProcessEmailsTask(List<Email> emails, ProcessSettings processSettings);
   List<Email> getSearchResults();
   GetEmailMetadataTask getSearchTask(String query) throws GmailServiceException;
+  GetEmailMetadataTask getIncrementalSearchTask(String query) throws GmailServiceException;
   void openFile(File file);
   void openQueryLanguagePage();
   void openUnattachHomepage();
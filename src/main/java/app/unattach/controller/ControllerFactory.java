@@ -2,8 +2,10 @@ package app.unattach.controller;
 
 import app.unattach.model.Config;
 import app.unattach.model.FileConfig;
+import app.unattach.model.FileMetadataCache;
 import app.unattach.model.attachmentstorage.UserStorage;
 import app.unattach.model.attachmentstorage.FileUserStorage;
+import app.unattach.model.service.FileQuotaLedger;
 import app.unattach.model.service.GmailServiceManager;
 import app.unattach.model.service.LiveGmailServiceManager;
 import app.unattach.model.LiveModel;
@@ -15,9 +17,12 @@ public class ControllerFactory {
   public static synchronized Controller getDefaultController() {
     if (defaultController == null) {
       UserStorage userStorage = new FileUserStorage();
-      GmailServiceManager gmailServiceManager = new LiveGmailServiceManager();
       Config config = new FileConfig();
-      Model model = new LiveModel(config, userStorage, gmailServiceManager);
+      FileQuotaLedger quotaLedger = FileQuotaLedger.load();
+      // The ledger is otherwise only saved now and then, so the usage since would be forgotten on exit.
+      Runtime.getRuntime().addShutdownHook(new Thread(quotaLedger::save, "save-quota-ledger"));
+      GmailServiceManager gmailServiceManager = new LiveGmailServiceManager(config.getHttpSettings(), quotaLedger);
+      Model model = new LiveModel(config, userStorage, gmailServiceManager, FileMetadataCache.load());
       defaultController = new DefaultController(model);
     }
     return defaultController;
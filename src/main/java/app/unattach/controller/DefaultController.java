@@ -89,8 +89,8 @@ public record DefaultController(Model model) implements Controller {
   }
 
   @Override
-  public LongTask<ProcessEmailResult> getProcessTask(Email email, ProcessSettings processSettings) {
-    return model.getProcessTask(email, processSettings);
+  public ProcessEmailsTask getProcessEmailsTask(List<Email> emails, ProcessSettings processSettings) {
+    return model.getProcessEmailsTask(emails, processSettings);
   }
 
   @Override
@@ -103,6 +103,11 @@ public record DefaultController(Model model) implements Controller {
     return model.getSearchTask(query);
   }
 
+  @Override
+  public GetEmailMetadataTask getIncrementalSearchTask(String query) throws GmailServiceException {
+    return model.getIncrementalSearchTask(query);
+  }
+
   @Override
   public void openUnattachHomepage() {
     openWebPage(Constants.HOMEPAGE);
@@ -142,6 +147,11 @@ public record DefaultController(Model model) implements Controller {
     }
   }
 
+  @Override
+  public void invalidateLabels() {
+    model.invalidateLabels();
+  }
+
   @Override
   public DefaultArtifactVersion getLatestVersion() {
     try {
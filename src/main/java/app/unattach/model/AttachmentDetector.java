@@ -0,0 +1,81 @@
+package app.unattach.model;
+
+import com.google.api.services.gmail.model.MessagePart;
+import com.google.api.services.gmail.model.MessagePartHeader;
+
+import javax.mail.Part;
+import javax.mail.internet.ContentDisposition;
+import javax.mail.internet.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Detects attachments within the MIME structure of an email as reported by Gmail, the same way {@link EmailProcessor}
+ * detects them within the email itself, so that the email needn't be downloaded to find out.
+ */
+class AttachmentDetector {
+  private final boolean processEmbedded;
+  private final List<MessagePart> attachmentParts = new ArrayList<>();
+
+  private AttachmentDetector(boolean processEmbedded) {
+    this.processEmbedded = processEmbedded;
+  }
+
+  /**
+   * @return The parts with attachments, in the order in which {@link EmailProcessor} finds them, or null if the
+   *         structure is incomplete, e.g. nested too deeply, and so can't tell.
+   */
+  static List<MessagePart> detect(MessagePart payload, boolean processEmbedded) {
+    AttachmentDetector detector = new AttachmentDetector(processEmbedded);
+    return payload != null && detector.detectRecursive(payload) ? detector.attachmentParts : null;
+  }
+
+  static String getFilename(MessagePart part) {
+    // Gmail reports decoded filenames.
+    return EmailProcessor.normalizeFilename(part.getFilename());
+  }
+
+  /**
+   * @return Whether the structure of the part was complete.
+   */
+  private boolean detectRecursive(MessagePart part) {
+    if (part.getMimeType() == null || part.getHeaders() == null) {
+      return false;
+    }
+    String mimeType = part.getMimeType().toLowerCase();
+    if (!processEmbedded && mimeType.equals("multipart/related")) {
+      return true;
+    }
+    String disposition;
+    try {
+      disposition = getDisposition(part);
+    } catch (ParseException e) {
+      return false;
+    }
+    if ((disposition == null || disposition.equalsIgnoreCase(Part.ATTACHMENT) || processEmbedded) &&
+        getFilename(part) != null) {
+      attachmentParts.add(part);
+      return true;
+    }
+    if (mimeType.startsWith("multipart/")) {
+      if (part.getParts() == null) {
+        return false;
+      }
+      for (MessagePart subPart : part.getParts()) {
+        if (!detectRecursive(subPart)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static String getDisposition(MessagePart part) throws ParseException {
+    for (MessagePartHeader header : part.getHeaders()) {
+      if (header.getName().equalsIgnoreCase("Content-Disposition")) {
+        return new ContentDisposition(header.getValue()).getDisposition();
+      }
+    }
+    return null;
+  }
+}
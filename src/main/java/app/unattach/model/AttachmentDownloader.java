@@ -0,0 +1,149 @@
+package app.unattach.model;
+
+import app.unattach.model.attachmentstorage.UserStorage;
+import app.unattach.model.service.DecodedContent;
+import app.unattach.model.service.GmailService;
+import app.unattach.model.service.GmailServiceException;
+import app.unattach.utils.Logger;
+import com.google.api.services.gmail.model.MessagePart;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Downloads the attachments of an email without downloading the email itself, for when the email is neither changed nor
+ * backed up. Attachments are detected within the MIME structure reported by Gmail, and their bodies are then fetched in
+ * parallel.
+ */
+class AttachmentDownloader {
+  private static final Logger logger = Logger.get();
+  static final int DEFAULT_MAX_PARALLEL_DOWNLOADS = 4;
+
+  private static record Download(String attachmentId, String originalFilename, String normalizedFilename) {}
+
+  private final GmailService service;
+  private final UserStorage userStorage;
+  private final ExecutorService executor;
+  private final Email email;
+  private final ProcessSettings processSettings;
+  private final FilenameFactory filenameFactory;
+  private List<Download> downloads;
+
+  private AttachmentDownloader(GmailService service, UserStorage userStorage, ExecutorService executor, Email email,
+                               ProcessingContext context) {
+    this.service = service;
+    this.userStorage = userStorage;
+    this.executor = executor;
+    this.email = email;
+    processSettings = context.getProcessSettings();
+    filenameFactory = context.getFilenameFactory();
+  }
+
+  /**
+   * @return The executor that fetches attachments, which is shared by all emails being processed at once.
+   */
+  static ExecutorService createExecutor(int maxParallelDownloads) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(maxParallelDownloads, maxParallelDownloads, 10,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+      Thread thread = new Thread(runnable, "attachment-download-worker");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Idle workers exit, so that the executor doesn't keep threads around between runs.
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  static boolean canDownload(ProcessOption processOption) {
+    return processOption.shouldDownload() && !processOption.shouldRemove() && !processOption.backupEmail();
+  }
+
+  /**
+   * @param knownStructure The structure of the email as found by the search, if any. The structure is only fetched if
+   *                       this one is missing, or incomplete, e.g. lacking attachment IDs because it was cached before
+   *                       searches fetched them.
+   * @return The names of the downloaded attachments, or null if the structure of the email is incomplete, in which case
+   *         nothing was downloaded.
+   */
+  static Set<String> download(GmailService service, UserStorage userStorage, ExecutorService executor, Email email,
+                              ProcessingContext context, MessagePart knownStructure)
+      throws IOException, GmailServiceException {
+    AttachmentDownloader downloader = new AttachmentDownloader(service, userStorage, executor, email, context);
+    downloader.downloads = knownStructure == null ? null : downloader.planDownloads(knownStructure);
+    if (downloader.downloads == null) {
+      MessagePart payload = service.getMessageStructure(email.getGmailId()).getPayload(); // 5 quota units
+      downloader.downloads = downloader.planDownloads(payload);
+      if (downloader.downloads == null) {
+        logger.warn("The MIME structure of the email is incomplete.");
+        return null;
+      }
+    }
+    downloader.saveAttachments();
+    Set<String> originalAttachmentNames = new TreeSet<>();
+    downloader.downloads.forEach(download -> originalAttachmentNames.add(download.originalFilename()));
+    return originalAttachmentNames;
+  }
+
+  /**
+   * @return The downloads of all attachments, or null if the structure isn't complete enough to plan them.
+   */
+  private List<Download> planDownloads(MessagePart payload) {
+    List<MessagePart> attachmentParts =
+        AttachmentDetector.detect(payload, processSettings.processOption().shouldProcessEmbedded());
+    if (attachmentParts == null) {
+      return null;
+    }
+    List<Download> downloads = new ArrayList<>(attachmentParts.size());
+    int fileCounter = 0;
+    for (MessagePart part : attachmentParts) {
+      String originalFilename = AttachmentDetector.getFilename(part);
+      if (part.getBody() == null || part.getBody().getAttachmentId() == null) {
+        logger.debug("Attachment %s has no attachment ID.", originalFilename);
+        return null;
+      }
+      String normalizedFilename = filenameFactory.getFilename(email, fileCounter++, originalFilename);
+      downloads.add(new Download(part.getBody().getAttachmentId(), originalFilename, normalizedFilename));
+    }
+    return downloads;
+  }
+
+  private void saveAttachments() throws IOException, GmailServiceException {
+    List<Future<Void>> futures = new ArrayList<>();
+    for (Download download : downloads) {
+      futures.add(executor.submit(() -> {
+        saveAttachment(download);
+        return null;
+      }));
+    }
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      futures.forEach(future -> future.cancel(true));
+      throw new InterruptedIOException("Interrupted while downloading attachments.");
+    } catch (ExecutionException e) {
+      futures.forEach(future -> future.cancel(true));
+      if (e.getCause() instanceof GmailServiceException gmailServiceException) {
+        throw gmailServiceException;
+      }
+      if (e.getCause() instanceof IOException ioException) {
+        throw ioException;
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private void saveAttachment(Download download) throws IOException, GmailServiceException {
+    try (DecodedContent content = service.getAttachment(email.getGmailId(), download.attachmentId()); // 5 quota units
+         InputStream inputStream = content.getInputStream()) {
+      userStorage.saveAttachment(inputStream, processSettings.targetDirectory(), download.normalizedFilename(),
+          email.getTimestamp());
+      logger.info("Saved attachment %s from email with subject '%s' to file %s.", download.originalFilename(),
+          email.getSubject(), download.normalizedFilename());
+    }
+  }
+}
@@ -1,8 +1,11 @@
 package app.unattach.model;
 
+import app.unattach.model.service.HttpSettings;
+
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
@@ -13,7 +16,21 @@ public class BaseConfig implements Config {
   private static final String DOWNLOADED_LABEL_ID_PROPERTY = "downloaded_label_id";
   private static final String EMAIL_SIZE_PROPERTY = "email_size";
   private static final String FILENAME_SCHEMA_PROPERTY = "filename_schema";
+  private static final String HISTORY_EMAIL_ADDRESS_PROPERTY = "history_email_address";
+  private static final String HISTORY_ID_PROPERTY = "history_id";
+  private static final String HISTORY_QUERY_PROPERTY = "history_query";
+  // Not editable in the app, but can be tuned in the config file, e.g. for slow connections.
+  private static final String HTTP_MAX_CONNECTIONS_PROPERTY = "http_max_connections";
+  private static final String HTTP_KEEP_ALIVE_MILLIS_PROPERTY = "http_keep_alive_millis";
+  private static final String HTTP_COMPRESS_RESPONSES_PROPERTY = "http_compress_responses";
+  private static final String HTTP_CONNECT_TIMEOUT_MILLIS_PROPERTY = "http_connect_timeout_millis";
+  private static final String HTTP_READ_TIMEOUT_MILLIS_PROPERTY = "http_read_timeout_millis";
+  private static final String HTTP_BATCH_READ_TIMEOUT_MILLIS_PROPERTY = "http_batch_read_timeout_millis";
+  private static final String HTTP_MEDIA_READ_TIMEOUT_MILLIS_PROPERTY = "http_media_read_timeout_millis";
   private static final String LABEL_IDS_PROPERTY = "label_ids";
+  // Followed by the email address of the account, since the account signed in next may be a different one.
+  private static final String ORIGINALS_TO_DELETE_PROPERTY_PREFIX = "originals_to_delete.";
+  private static final String ORIGINALS_TO_TRASH_PROPERTY_PREFIX = "originals_to_trash.";
   private static final String PROCESS_EMBEDDED_PROPERTY = "process_embedded";
   private static final String REMOVED_LABEL_ID_PROPERTY = "removed_label_id";
   private static final String SEARCH_QUERY_PROPERTY = "search_query";
@@ -27,6 +44,16 @@ public class BaseConfig implements Config {
       DOWNLOADED_LABEL_ID_PROPERTY,
       EMAIL_SIZE_PROPERTY,
       FILENAME_SCHEMA_PROPERTY,
+      HISTORY_EMAIL_ADDRESS_PROPERTY,
+      HISTORY_ID_PROPERTY,
+      HISTORY_QUERY_PROPERTY,
+      HTTP_MAX_CONNECTIONS_PROPERTY,
+      HTTP_KEEP_ALIVE_MILLIS_PROPERTY,
+      HTTP_COMPRESS_RESPONSES_PROPERTY,
+      HTTP_CONNECT_TIMEOUT_MILLIS_PROPERTY,
+      HTTP_READ_TIMEOUT_MILLIS_PROPERTY,
+      HTTP_BATCH_READ_TIMEOUT_MILLIS_PROPERTY,
+      HTTP_MEDIA_READ_TIMEOUT_MILLIS_PROPERTY,
       LABEL_IDS_PROPERTY,
       PROCESS_EMBEDDED_PROPERTY,
       REMOVED_LABEL_ID_PROPERTY,
@@ -37,6 +64,8 @@ public class BaseConfig implements Config {
   );
 
   protected final Properties config;
+  // Kept apart from the other properties, since there can be many, which would make every save of the config slow.
+  protected Set<String> historyUnprocessedEmailIds = Set.of();
 
   public BaseConfig() {
     config = new Properties();
@@ -49,7 +78,14 @@ public class BaseConfig implements Config {
 
   @Override
   public Set<String> getPropertyNames() {
-    return PROPERTY_NAMES;
+    Set<String> propertyNames = new HashSet<>(PROPERTY_NAMES);
+    for (String propertyName : config.stringPropertyNames()) {
+      if (propertyName.startsWith(ORIGINALS_TO_DELETE_PROPERTY_PREFIX) ||
+          propertyName.startsWith(ORIGINALS_TO_TRASH_PROPERTY_PREFIX)) {
+        propertyNames.add(propertyName);
+      }
+    }
+    return propertyNames;
   }
 
   @Override
@@ -72,11 +108,58 @@ public class BaseConfig implements Config {
     return config.getProperty(FILENAME_SCHEMA_PROPERTY, FilenameFactory.DEFAULT_SCHEMA);
   }
 
+  @Override
+  public HistoryCheckpoint getHistoryCheckpoint() {
+    String emailAddress = config.getProperty(HISTORY_EMAIL_ADDRESS_PROPERTY);
+    String query = config.getProperty(HISTORY_QUERY_PROPERTY);
+    String historyId = config.getProperty(HISTORY_ID_PROPERTY);
+    if (emailAddress == null || query == null || historyId == null) {
+      return null;
+    }
+    return new HistoryCheckpoint(emailAddress, query, historyId, historyUnprocessedEmailIds);
+  }
+
+  @Override
+  public HttpSettings getHttpSettings() {
+    HttpSettings defaults = HttpSettings.DEFAULT;
+    return new HttpSettings(
+        Integer.parseInt(config.getProperty(HTTP_MAX_CONNECTIONS_PROPERTY,
+            Integer.toString(defaults.maxConnections()))),
+        Long.parseLong(config.getProperty(HTTP_KEEP_ALIVE_MILLIS_PROPERTY,
+            Long.toString(defaults.keepAliveMillis()))),
+        Boolean.parseBoolean(config.getProperty(HTTP_COMPRESS_RESPONSES_PROPERTY,
+            Boolean.toString(defaults.compressResponses()))),
+        Integer.parseInt(config.getProperty(HTTP_CONNECT_TIMEOUT_MILLIS_PROPERTY,
+            Integer.toString(defaults.connectTimeoutMillis()))),
+        Integer.parseInt(config.getProperty(HTTP_READ_TIMEOUT_MILLIS_PROPERTY,
+            Integer.toString(defaults.readTimeoutMillis()))),
+        Integer.parseInt(config.getProperty(HTTP_BATCH_READ_TIMEOUT_MILLIS_PROPERTY,
+            Integer.toString(defaults.batchReadTimeoutMillis()))),
+        Integer.parseInt(config.getProperty(HTTP_MEDIA_READ_TIMEOUT_MILLIS_PROPERTY,
+            Integer.toString(defaults.mediaReadTimeoutMillis())))
+    );
+  }
+
   @Override
   public List<String> getLabelIds() {
     return Arrays.asList(config.getProperty(LABEL_IDS_PROPERTY, "").split(","));
   }
 
+  @Override
+  public List<String> getOriginalsToDelete(String emailAddress) {
+    return getNonEmptyList(ORIGINALS_TO_DELETE_PROPERTY_PREFIX + emailAddress);
+  }
+
+  @Override
+  public List<String> getOriginalsToTrash(String emailAddress) {
+    return getNonEmptyList(ORIGINALS_TO_TRASH_PROPERTY_PREFIX + emailAddress);
+  }
+
+  private List<String> getNonEmptyList(String property) {
+    String value = config.getProperty(property, "");
+    return value.isEmpty() ? List.of() : Arrays.asList(value.split(","));
+  }
+
   @Override
   public String getDownloadedLabelId() {
     return config.getProperty(DOWNLOADED_LABEL_ID_PROPERTY);
@@ -124,12 +207,54 @@ public class BaseConfig implements Config {
     saveConfig();
   }
 
+  @Override
+  public void saveHistoryCheckpoint(HistoryCheckpoint checkpoint) {
+    config.setProperty(HISTORY_EMAIL_ADDRESS_PROPERTY, checkpoint.emailAddress());
+    config.setProperty(HISTORY_QUERY_PROPERTY, checkpoint.query());
+    config.setProperty(HISTORY_ID_PROPERTY, checkpoint.historyId());
+    historyUnprocessedEmailIds = Set.copyOf(checkpoint.unprocessedEmailIds());
+    saveHistoryUnprocessedEmailIds();
+    saveConfig();
+  }
+
+  @Override
+  public void removeHistoryCheckpoint() {
+    config.remove(HISTORY_EMAIL_ADDRESS_PROPERTY);
+    config.remove(HISTORY_QUERY_PROPERTY);
+    config.remove(HISTORY_ID_PROPERTY);
+    historyUnprocessedEmailIds = Set.of();
+    saveHistoryUnprocessedEmailIds();
+    saveConfig();
+  }
+
+  protected void saveHistoryUnprocessedEmailIds() {}
+
   @Override
   public void saveLabelIds(List<String> labelIds) {
     config.setProperty(LABEL_IDS_PROPERTY, String.join(",", labelIds));
     saveConfig();
   }
 
+  @Override
+  public void saveOriginalsToDelete(String emailAddress, List<String> messageIds) {
+    saveNonEmptyList(ORIGINALS_TO_DELETE_PROPERTY_PREFIX + emailAddress, messageIds);
+  }
+
+  @Override
+  public void saveOriginalsToTrash(String emailAddress, List<String> messageIds) {
+    saveNonEmptyList(ORIGINALS_TO_TRASH_PROPERTY_PREFIX + emailAddress, messageIds);
+  }
+
+  // Empty lists aren't kept, so that accounts with nothing left to remove don't linger in the config.
+  private void saveNonEmptyList(String property, List<String> values) {
+    if (values.isEmpty()) {
+      config.remove(property);
+    } else {
+      config.setProperty(property, String.join(",", values));
+    }
+    saveConfig();
+  }
+
   @Override
   public void saveProcessEmbedded(boolean processEmbedded) {
     config.setProperty(PROCESS_EMBEDDED_PROPERTY, Boolean.toString(processEmbedded));
@@ -0,0 +1,122 @@
+package app.unattach.model;
+
+import app.unattach.utils.Logger;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.gmail.model.Message;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory metadata cache, which evicts the least recently used messages once the total size of their metadata
+ * exceeds the limit. Messages are kept as JSON, which is compact and gives every reader its own copy.
+ */
+public class BaseMetadataCache implements MetadataCache {
+  private static final Logger logger = Logger.get();
+  protected static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+  public static final long DEFAULT_MAX_SIZE_IN_BYTES = 64L * Constants.BYTES_IN_MEGABYTE;
+
+  private final long maxSizeInBytes;
+  protected final Map<String, String> idToJson = new LinkedHashMap<>(16, 0.75f, true);
+  protected String emailAddress;
+  protected String historyId;
+  private long sizeInBytes;
+
+  public BaseMetadataCache() {
+    this(DEFAULT_MAX_SIZE_IN_BYTES);
+  }
+
+  public BaseMetadataCache(long maxSizeInBytes) {
+    this.maxSizeInBytes = maxSizeInBytes;
+  }
+
+  @Override
+  public synchronized void save() {}
+
+  @Override
+  public synchronized String getEmailAddress() {
+    return emailAddress;
+  }
+
+  @Override
+  public synchronized String getHistoryId() {
+    return historyId;
+  }
+
+  @Override
+  public synchronized Message get(String messageId) {
+    String json = idToJson.get(messageId);
+    if (json == null) {
+      return null;
+    }
+    try {
+      return JSON_FACTORY.fromString(json, Message.class);
+    } catch (IOException e) {
+      logger.error("Failed to parse cached metadata of message %s.", messageId);
+      remove(messageId);
+      return null;
+    }
+  }
+
+  @Override
+  public synchronized void put(Message message) {
+    try {
+      put(message.getId(), JSON_FACTORY.toString(message));
+    } catch (IOException e) {
+      logger.error("Failed to cache metadata of message %s.", message.getId());
+    }
+  }
+
+  protected void put(String messageId, String json) {
+    remove(messageId);
+    idToJson.put(messageId, json);
+    sizeInBytes += getSizeInBytes(json);
+    evict();
+  }
+
+  @Override
+  public synchronized void invalidate(Collection<String> messageIds) {
+    messageIds.forEach(this::remove);
+  }
+
+  @Override
+  public synchronized void setHistoryId(String historyId) {
+    this.historyId = historyId;
+  }
+
+  @Override
+  public synchronized void reset(String emailAddress, String historyId) {
+    idToJson.clear();
+    sizeInBytes = 0;
+    this.emailAddress = emailAddress;
+    this.historyId = historyId;
+  }
+
+  synchronized int size() {
+    return idToJson.size();
+  }
+
+  private void remove(String messageId) {
+    String json = idToJson.remove(messageId);
+    if (json != null) {
+      sizeInBytes -= getSizeInBytes(json);
+    }
+  }
+
+  private void evict() {
+    Iterator<String> leastRecentlyUsed = idToJson.values().iterator();
+    while (sizeInBytes > maxSizeInBytes && leastRecentlyUsed.hasNext()) {
+      sizeInBytes -= getSizeInBytes(leastRecentlyUsed.next());
+      leastRecentlyUsed.remove();
+    }
+  }
+
+  private static long getSizeInBytes(String json) {
+    // Metadata is mostly ASCII, so this is close enough, and cheaper than encoding.
+    return json.length();
+  }
+}
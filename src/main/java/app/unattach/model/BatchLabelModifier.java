@@ -0,0 +1,59 @@
+package app.unattach.model;
+
+import app.unattach.model.service.GmailService;
+import app.unattach.model.service.GmailServiceException;
+import app.unattach.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects label additions across a run, and applies them with as few messages.batchModify calls as possible.
+ */
+class BatchLabelModifier {
+  private static final Logger logger = Logger.get();
+  // maximum number of message IDs per messages.batchModify call
+  static final int MAX_BATCH_SIZE = 1000;
+
+  private final GmailService service;
+  private final Map<String, List<String>> labelIdToMessageIds;
+
+  BatchLabelModifier(GmailService service) {
+    this.service = service;
+    labelIdToMessageIds = new TreeMap<>();
+  }
+
+  synchronized void addLabel(String messageId, String labelId) {
+    List<String> messageIds = labelIdToMessageIds.computeIfAbsent(labelId, id -> new ArrayList<>());
+    messageIds.add(messageId);
+    if (messageIds.size() % MAX_BATCH_SIZE == 0) {
+      try {
+        flush(labelId);
+      } catch (GmailServiceException e) {
+        // The email that happened to fill the batch was processed, so the batch is kept for the flush ending the run.
+        logger.error("Failed to add a label to a batch of emails. Retrying once the run finishes.", e);
+      }
+    }
+  }
+
+  synchronized void flush() throws GmailServiceException {
+    while (!labelIdToMessageIds.isEmpty()) {
+      flush(labelIdToMessageIds.keySet().iterator().next());
+    }
+  }
+
+  /**
+   * Message IDs are removed only once the label was added to them, so that none are lost if adding it fails.
+   */
+  private void flush(String labelId) throws GmailServiceException {
+    List<String> messageIds = labelIdToMessageIds.get(labelId);
+    while (!messageIds.isEmpty()) {
+      List<String> batch = messageIds.subList(0, Math.min(messageIds.size(), MAX_BATCH_SIZE));
+      service.addLabel(new ArrayList<>(batch), labelId);
+      batch.clear();
+    }
+    labelIdToMessageIds.remove(labelId);
+  }
+}
@@ -0,0 +1,36 @@
+package app.unattach.model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the size of metadata batches to how the server copes with them: additive increase while batches complete
+ * quickly and cleanly, multiplicative decrease when items get rate limited or batches get slow.
+ */
+class BatchSizer {
+  // maximum number of calls in a Gmail batch request
+  static final int MAX_BATCH_SIZE = 100;
+  static final int MIN_BATCH_SIZE = 10;
+  static final int INITIAL_BATCH_SIZE = 40;
+  private static final int BATCH_SIZE_INCREMENT = 10;
+  private static final long TARGET_LATENCY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private int batchSize = INITIAL_BATCH_SIZE;
+
+  synchronized int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * @param latencyNanos How long the batch took, including the wait for quota.
+   * @param rateLimitedItems The number of items in the batch that were rejected for exceeding the rate limit.
+   */
+  synchronized void onBatchCompleted(long latencyNanos, int rateLimitedItems) {
+    if (rateLimitedItems > 0) {
+      batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+    } else if (latencyNanos > TARGET_LATENCY_NANOS) {
+      batchSize = Math.max(MIN_BATCH_SIZE, batchSize * 3 / 4);
+    } else {
+      batchSize = Math.min(MAX_BATCH_SIZE, batchSize + BATCH_SIZE_INCREMENT);
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package app.unattach.model;
 
+import app.unattach.model.service.HttpSettings;
+
 import java.util.List;
 import java.util.Set;
 
@@ -9,7 +11,11 @@ public interface Config {
   String getDateFormat();
   boolean getRemoveOriginal();
   String getFilenameSchema();
+  HistoryCheckpoint getHistoryCheckpoint();
+  HttpSettings getHttpSettings();
   List<String> getLabelIds();
+  List<String> getOriginalsToDelete(String emailAddress);
+  List<String> getOriginalsToTrash(String emailAddress);
   String getDownloadedLabelId();
   boolean getProcessEmbedded();
   String getRemovedLabelId();
@@ -22,7 +28,11 @@ public interface Config {
   void saveDownloadedLabelId(String downloadedLabelId);
   void saveEmailSize(int emailSize);
   void saveFilenameSchema(String schema);
+  void saveHistoryCheckpoint(HistoryCheckpoint checkpoint);
+  void removeHistoryCheckpoint();
   void saveLabelIds(List<String> labelIds);
+  void saveOriginalsToDelete(String emailAddress, List<String> messageIds);
+  void saveOriginalsToTrash(String emailAddress, List<String> messageIds);
   void saveProcessEmbedded(boolean processEmbedded);
   void saveRemovedLabelId(String removedLabelId);
   void saveSearchQuery(String query);
@@ -14,4 +14,6 @@ public final class Constants {
   public static final String PRODUCT_NAME = "Unattach";
   public static final String VERSION = "3.3.0";
   public static final boolean DEBUG_MODE = false;
+  // Off unless the app is started with -Dunattach.structure_in_process_log=true, e.g. to diagnose failing emails.
+  public static final boolean STRUCTURE_IN_PROCESS_LOG = Boolean.getBoolean("unattach.structure_in_process_log");
 }
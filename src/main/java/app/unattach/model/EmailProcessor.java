@@ -2,8 +2,6 @@ package app.unattach.model;
 
 import app.unattach.model.attachmentstorage.UserStorage;
 import app.unattach.utils.Logger;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 
 import javax.mail.*;
 import javax.mail.internet.MimeBodyPart;
@@ -13,72 +11,73 @@ import javax.mail.internet.MimeUtility;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.OffsetDateTime;
 import java.util.*;
 
-import static app.unattach.model.GmailLabel.NO_LABEL;
-
 public class EmailProcessor {
   private static final Logger logger = Logger.get();
 
   private final UserStorage userStorage;
   private final Email email;
   private MimeMessage mimeMessage;
+  private final ProcessingContext context;
   private final ProcessSettings processSettings;
   private final FilenameFactory filenameFactory;
   private int fileCounter = 0;
   private final List<Part> detectedAttachmentParts;
   private final Set<String> originalAttachmentNames;
   private final Map<String, String> originalToNormalizedFilename;
+  private final Set<Part> modifiedParts;
   private Part mainTextPart;
   private Part mainHtmlPart;
 
-  private EmailProcessor(UserStorage userStorage, Email email, MimeMessage mimeMessage,
-                         ProcessSettings processSettings) {
+  private EmailProcessor(UserStorage userStorage, Email email, MimeMessage mimeMessage, ProcessingContext context) {
     this.userStorage = userStorage;
     this.email = email;
     this.mimeMessage = mimeMessage;
-    this.processSettings = processSettings;
-    Set<String> unattachLabelIds = getUnattachLabelIds(processSettings);
-    filenameFactory = new FilenameFactory(processSettings.filenameSchema(), unattachLabelIds);
+    this.context = context;
+    processSettings = context.getProcessSettings();
+    filenameFactory = context.getFilenameFactory();
     detectedAttachmentParts = new LinkedList<>();
     originalAttachmentNames = new TreeSet<>();
     originalToNormalizedFilename = new TreeMap<>();
+    modifiedParts = new HashSet<>();
   }
 
-  private Set<String> getUnattachLabelIds(ProcessSettings processSettings) {
-    Set<String> unattachLabelIds = new HashSet<>();
-    ProcessOption processOption = processSettings.processOption();
-    if (!NO_LABEL.id().equals(processOption.downloadedLabelId())) {
-      unattachLabelIds.add(processOption.downloadedLabelId());
-    }
-    if (!NO_LABEL.id().equals(processOption.removedLabelId())) {
-      unattachLabelIds.add(processOption.downloadedLabelId());
-    }
-    return unattachLabelIds;
-  }
-
+  /**
+   * @param modifiedParts Receives the parts whose content was changed, for {@link MimeMessageWriter}.
+   */
   static MimeMessage process(UserStorage userStorage, Email email, MimeMessage mimeMessage,
-                             ProcessSettings processSettings, Set<String> originalAttachmentNames)
+                             ProcessingContext context, Set<String> originalAttachmentNames,
+                             Set<Part> modifiedParts)
       throws IOException, MessagingException {
-    EmailProcessor processor = new EmailProcessor(userStorage, email, mimeMessage, processSettings);
+    EmailProcessor processor = new EmailProcessor(userStorage, email, mimeMessage, context);
+    ProcessSettings processSettings = context.getProcessSettings();
+    boolean addReferences = processSettings.processOption().shouldRemove() && processSettings.addMetadata();
+    List<CheckedFunction<Part>> functions = new ArrayList<>();
     // As per https://bugs.openjdk.java.net/browse/JDK-8195686, Java doesn't have direct support for iso-8859-8-i
     // encoding; however, iso-8859-8 is equivalent, so we pre-emptively replace it.
-    explore(processor.mimeMessage, replaceContentType("iso-8859-8-i", "iso-8859-8", true));
-    explore(processor.mimeMessage, processor::detectAndMaybeSaveAttachment);
+    functions.add(replaceContentType("iso-8859-8-i", "iso-8859-8", true));
+    functions.add(processor::detectAndMaybeSaveAttachment);
+    if (addReferences) {
+      functions.add(processor::findTextAndHtml);
+    }
+    explore(processor.mimeMessage, functions);
     if (processSettings.processOption().shouldRemove()) {
+      MimeMessage originalMimeMessage = processor.mimeMessage;
       processor.removeDetectedAttachmentParts();
-      if (processSettings.addMetadata()) {
-        explore(processor.mimeMessage, processor::findTextAndHtml);
+      if (addReferences) {
+        if (processor.mimeMessage != originalMimeMessage) {
+          // The whole email was an attachment, so the text and HTML parts are those of the empty replacement.
+          explore(processor.mimeMessage, processor::findTextAndHtml);
+        }
         processor.addReferencesToContent();
       }
     }
-    processor.mimeMessage.saveChanges();
     originalAttachmentNames.addAll(processor.originalAttachmentNames);
+    modifiedParts.addAll(processor.modifiedParts);
     return processor.mimeMessage;
   }
 
@@ -88,14 +87,37 @@ public class EmailProcessor {
   }
 
   public static void explore(Part part, CheckedFunction<Part> function) throws IOException, MessagingException {
-    boolean recurse = function.accept(part);
-    if (!recurse) {
-      return;
-    }
-    if (part.getContent() instanceof Multipart multipart) {
-      for (int i = 0; i < multipart.getCount(); ++i) {
-        BodyPart subPart = multipart.getBodyPart(i);
-        explore(subPart, function);
+    explore(part, List.of(function));
+  }
+
+  /**
+   * Applies the functions to the parts in a single pre-order traversal, so that the content of each multipart is parsed
+   * only once. Each function is applied to the sub-parts of a part only if it returned true for the part. The traversal
+   * is iterative, so that deeply nested emails can't overflow the stack.
+   */
+  public static void explore(Part part, List<CheckedFunction<Part>> functions) throws IOException, MessagingException {
+    record Visit(Part part, BitSet functionIndices) {}
+    BitSet allFunctionIndices = new BitSet();
+    allFunctionIndices.set(0, functions.size());
+    Deque<Visit> stack = new ArrayDeque<>();
+    stack.push(new Visit(part, allFunctionIndices));
+    while (!stack.isEmpty()) {
+      Visit visit = stack.pop();
+      BitSet recursingFunctionIndices = new BitSet();
+      BitSet functionIndices = visit.functionIndices();
+      for (int i = functionIndices.nextSetBit(0); i >= 0; i = functionIndices.nextSetBit(i + 1)) {
+        if (functions.get(i).accept(visit.part())) {
+          recursingFunctionIndices.set(i);
+        }
+      }
+      // Only multiparts have sub-parts, so the content of other parts needn't be decoded.
+      if (recursingFunctionIndices.isEmpty() || !visit.part().isMimeType("multipart/*")) {
+        continue;
+      }
+      if (visit.part().getContent() instanceof Multipart multipart) {
+        for (int i = multipart.getCount() - 1; i >= 0; --i) {
+          stack.push(new Visit(multipart.getBodyPart(i), recursingFunctionIndices));
+        }
       }
     }
   }
@@ -155,32 +177,47 @@ public class EmailProcessor {
         && filename != null;
   }
 
-  private String getFilename(Part part) throws MessagingException, UnsupportedEncodingException {
+  static String getFilename(Part part) throws MessagingException, UnsupportedEncodingException {
     String rawFilename = part.getFileName();
     if (rawFilename == null) {
       return null;
     }
     try {
-      return MimeUtility.decodeText(rawFilename).trim();
+      return normalizeFilename(MimeUtility.decodeText(rawFilename));
     } catch (UnsupportedEncodingException e) {
       if (rawFilename.contains("iso-8859-8-i")) {
         rawFilename = rawFilename.replace("iso-8859-8-i", "iso-8859-8");
-        return MimeUtility.decodeText(rawFilename).trim();
+        return normalizeFilename(MimeUtility.decodeText(rawFilename));
       }
       logger.error("Failed to decode the attachment filename: %s", e.getMessage());
       return null;
     }
   }
+  /**
+   * @return The decoded filename without surrounding whitespace, or null if that leaves nothing, in which case the part
+   *         isn't an attachment. {@link AttachmentDetector} uses this too, so that both find the same attachments.
+   */
+  static String normalizeFilename(String decodedFilename) {
+    return decodedFilename == null || decodedFilename.isBlank() ? null : decodedFilename.trim();
+  }
+
 
-  private void removeDetectedAttachmentParts() throws MessagingException {
+  private void removeDetectedAttachmentParts() throws IOException, MessagingException {
     // If an attachment is the whole email body, replace it with an empty multipart alternative.
     if (detectedAttachmentParts.size() == 1 && detectedAttachmentParts.get(0) == mimeMessage) {
       mimeMessage = shallowCopy(mimeMessage);
+      modifiedParts.add(mimeMessage);
+      Multipart multipart = (Multipart) mimeMessage.getContent();
+      for (int i = 0; i < multipart.getCount(); ++i) {
+        modifiedParts.add(multipart.getBodyPart(i));
+      }
       return;
     }
     for (Part part : detectedAttachmentParts) {
       if (part instanceof BodyPart bodyPart) {
-        bodyPart.getParent().removeBodyPart(bodyPart);
+        Multipart parent = bodyPart.getParent();
+        parent.removeBodyPart(bodyPart);
+        modifiedParts.add(parent.getParent());
       }
     }
   }
@@ -223,6 +260,10 @@ public class EmailProcessor {
    * @return Whether to recursively explore child body parts.
    */
   private boolean findTextAndHtml(Part part) throws MessagingException {
+    // Attachments are removed before references to them are added, so their parts don't count.
+    if (detectedAttachmentParts.contains(part)) {
+      return false;
+    }
     if (part.isMimeType("text/plain") && mainTextPart == null) {
       mainTextPart = part;
     } else if (part.isMimeType("text/html") && mainHtmlPart == null) {
@@ -239,24 +280,18 @@ public class EmailProcessor {
       logger.error("Failed to find either text or HTML body part to append info about removed attachments to.");
     }
     String dateTimeString = OffsetDateTime.now().toString();
-    String hostname = getHostname();
+    String hostname = context.getHostname();
     if (mainTextPart != null) {
       String text = mainTextPart.getContent().toString();
       String newText = generateTextSuffix(text, originalToNormalizedFilename, dateTimeString, hostname);
       mainTextPart.setContent(newText, "text/plain; charset=utf-8");
+      modifiedParts.add(mainTextPart);
     }
     if (mainHtmlPart != null) {
       String html = mainHtmlPart.getContent().toString();
       String newHtml = generateHtmlSuffix(html, originalToNormalizedFilename, dateTimeString, hostname);
       mainHtmlPart.setContent(newHtml, "text/html; charset=utf-8");
-    }
-  }
-
-  private String getHostname() {
-    try {
-      return InetAddress.getLocalHost().getHostName();
-    } catch (UnknownHostException e) {
-      return "(unknown)";
+      modifiedParts.add(mainHtmlPart);
     }
   }
 
@@ -315,8 +350,63 @@ public class EmailProcessor {
       suffix.append("<li><i>File links only work in native email apps (e.g. Mail, Outlook) on the target host.</i></li>\n");
     }
     suffix.append("</ul></p>\n");
-    Document document = Jsoup.parse(html);
-    document.body().append(suffix.toString());
-    return document.toString();
+    return appendToHtmlBody(html, suffix.toString());
+  }
+
+  /**
+   * Inserts the suffix at the end of the body of the HTML, scanning rather than parsing the HTML, so that the rest of
+   * the markup is kept as it was. Without a closing body tag, the suffix goes before the closing html tag, if any, or
+   * at the very end. Closing tags within comments, scripts and styles are only text, so they are skipped.
+   */
+  static String appendToHtmlBody(String html, String suffix) {
+    int index = lastIndexOfClosingTag(html, "body");
+    if (index < 0) {
+      index = lastIndexOfClosingTag(html, "html");
+    }
+    if (index < 0) {
+      index = html.length();
+    }
+    return new StringBuilder(html.length() + suffix.length())
+        .append(html, 0, index).append(suffix).append(html, index, html.length()).toString();
+  }
+
+  private static int lastIndexOfClosingTag(String html, String tagName) {
+    String closingTag = "</" + tagName;
+    int lastIndex = -1;
+    int i = html.indexOf('<');
+    while (i >= 0) {
+      int next;
+      if (html.startsWith("<!--", i)) {
+        int end = html.indexOf("-->", i + 4);
+        // An unterminated comment runs to the end.
+        next = end < 0 ? html.length() : end + 3;
+      } else if (isTagAt(html, i, "<script")) {
+        next = indexOfTag(html, "</script", i + 1);
+      } else if (isTagAt(html, i, "<style")) {
+        next = indexOfTag(html, "</style", i + 1);
+      } else {
+        if (isTagAt(html, i, closingTag)) {
+          lastIndex = i;
+        }
+        next = i + 1;
+      }
+      i = next < 0 ? -1 : html.indexOf('<', next);
+    }
+    return lastIndex;
+  }
+
+  private static int indexOfTag(String html, String tagPrefix, int fromIndex) {
+    for (int i = html.indexOf('<', fromIndex); i >= 0; i = html.indexOf('<', i + 1)) {
+      if (isTagAt(html, i, tagPrefix)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isTagAt(String html, int index, String tagPrefix) {
+    int end = index + tagPrefix.length();
+    return html.regionMatches(true, index, tagPrefix, 0, tagPrefix.length()) && (end == html.length() ||
+        html.charAt(end) == '>' || html.charAt(end) == '/' || Character.isWhitespace(html.charAt(end)));
   }
 }
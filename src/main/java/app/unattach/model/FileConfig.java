@@ -6,8 +6,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -24,14 +27,48 @@ public class FileConfig extends BaseConfig {
         logger.error("Failed to load the config file.", e);
       }
     }
+    loadHistoryUnprocessedEmailIds();
+  }
+
+  private void loadHistoryUnprocessedEmailIds() {
+    Path idsPath = getHistoryUnprocessedIdsPath();
+    if (!Files.exists(idsPath)) {
+      return;
+    }
+    try {
+      historyUnprocessedEmailIds = Set.copyOf(Files.readAllLines(idsPath, StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      logger.error("Failed to load the unprocessed emails of the history checkpoint.", e);
+    }
   }
 
   @Override
-  public void saveConfig() {
+  protected synchronized void saveHistoryUnprocessedEmailIds() {
+    Path idsPath = getHistoryUnprocessedIdsPath();
+    Path tempPath = idsPath.resolveSibling(idsPath.getFileName() + ".tmp");
+    try {
+      Files.write(tempPath, historyUnprocessedEmailIds, StandardCharsets.UTF_8);
+      // Replaced in one go, so that an interrupted save doesn't lose the emails still to process.
+      Files.move(tempPath, idsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.error("Failed to save the unprocessed emails of the history checkpoint.", e);
+    }
+  }
+
+  @Override
+  public synchronized void saveConfig() {
     removeUnknownProperties();
-    File configFile = getConfigPath().toFile();
-    try (FileOutputStream out = new FileOutputStream(configFile)) {
+    Path configPath = getConfigPath();
+    Path tempPath = configPath.resolveSibling(configPath.getFileName() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(tempPath.toFile())) {
       config.store(out, null);
+    } catch (IOException e) {
+      logger.error("Failed to save the config file.", e);
+      return;
+    }
+    try {
+      // Replaced in one go, so that an interrupted save doesn't lose the settings.
+      Files.move(tempPath, configPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     } catch (IOException e) {
       logger.error("Failed to save the config file.", e);
     }
@@ -42,6 +79,11 @@ public class FileConfig extends BaseConfig {
     return Paths.get(userHome, "." + Constants.PRODUCT_NAME.toLowerCase() + ".properties");
   }
 
+  private static Path getHistoryUnprocessedIdsPath() {
+    String userHome = System.getProperty("user.home");
+    return Paths.get(userHome, "." + Constants.PRODUCT_NAME.toLowerCase() + "-history-unprocessed-ids.txt");
+  }
+
   private void removeUnknownProperties() {
     HashSet<Object> unknownProperties = new HashSet<>(config.keySet());
     unknownProperties.removeAll(getPropertyNames());
@@ -0,0 +1,84 @@
+package app.unattach.model;
+
+import app.unattach.utils.Logger;
+import com.google.api.services.gmail.model.Message;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A metadata cache persisted as a gzipped file. The first line holds the account and history ID, and each further
+ * line the metadata of one message as JSON, from least to most recently used.
+ */
+public class FileMetadataCache extends BaseMetadataCache {
+  private static final Logger logger = Logger.get();
+
+  private FileMetadataCache() {}
+
+  /**
+   * @return The cache as last saved, or an empty one if there is none or it can't be read.
+   */
+  public static FileMetadataCache load() {
+    FileMetadataCache cache = new FileMetadataCache();
+    cache.loadFile();
+    return cache;
+  }
+
+  private synchronized void loadFile() {
+    File cacheFile = getCachePath().toFile();
+    if (!cacheFile.exists()) {
+      return;
+    }
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new GZIPInputStream(new FileInputStream(cacheFile)), StandardCharsets.UTF_8))) {
+      String[] header = reader.readLine().split(" ", 2);
+      reset(header[1], header[0]);
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Message message = JSON_FACTORY.fromString(line, Message.class);
+        put(message.getId(), line);
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.error("Failed to load the metadata cache, so starting with an empty one.", e);
+      reset(null, null);
+    }
+  }
+
+  @Override
+  public synchronized void save() {
+    if (emailAddress == null || historyId == null) {
+      return;
+    }
+    Path cachePath = getCachePath();
+    Path tempPath = cachePath.resolveSibling(cachePath.getFileName() + ".tmp");
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+        new GZIPOutputStream(new FileOutputStream(tempPath.toFile())), StandardCharsets.UTF_8))) {
+      writer.write(historyId + " " + emailAddress + "\n");
+      for (Map.Entry<String, String> entry : idToJson.entrySet()) {
+        writer.write(entry.getValue());
+        writer.write('\n');
+      }
+    } catch (IOException e) {
+      logger.error("Failed to save the metadata cache.", e);
+      return;
+    }
+    try {
+      // Replaced in one go, so that an interrupted save doesn't corrupt the cache.
+      Files.move(tempPath, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.error("Failed to save the metadata cache.", e);
+    }
+  }
+
+  private static Path getCachePath() {
+    String userHome = System.getProperty("user.home");
+    return Paths.get(userHome, "." + Constants.PRODUCT_NAME.toLowerCase() + "-metadata-cache.gz");
+  }
+}
@@ -4,9 +4,9 @@ import javafx.fxml.FXML;
 import org.apache.commons.io.FilenameUtils;
 
 import java.security.InvalidParameterException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -18,12 +18,12 @@ public class FilenameFactory {
   );
   static final String DEFAULT_SCHEMA = "${ATTACHMENT_BASE}-${ID:-4}-${BODY_PART_INDEX}.${ATTACHMENT_EXTENSION}";
 
-  private final Map<String, Pattern> keyToPattern;
+  // shared by all factories, which may be used by several threads at once
+  private static final Map<String, Pattern> KEY_TO_PATTERN = new ConcurrentHashMap<>();
   private final String schema;
   private final Set<String> unattachLabelIds;
 
   public FilenameFactory(String schema, Set<String> unattachLabelIds) {
-    keyToPattern = new HashMap<>();
     this.schema = schema;
     this.unattachLabelIds = unattachLabelIds;
   }
@@ -57,14 +57,8 @@ public class FilenameFactory {
     return template;
   }
 
-  private Pattern getPattern(String key) {
-    Pattern pattern;
-    if (keyToPattern.containsKey(key)) {
-      pattern = keyToPattern.get(key);
-    } else {
-      keyToPattern.put(key, pattern = Pattern.compile("\\$\\{" + key + "(:(-?[0-9]+))?}"));
-    }
-    return pattern;
+  private static Pattern getPattern(String key) {
+    return KEY_TO_PATTERN.computeIfAbsent(key, k -> Pattern.compile("\\$\\{" + k + "(:(-?[0-9]+))?}"));
   }
 
   public String getLabelIdsString(Email email) {
@@ -3,53 +3,197 @@ package app.unattach.model;
 import app.unattach.controller.LongTask;
 import app.unattach.controller.LongTaskException;
 import app.unattach.model.service.GmailServiceException;
+import app.unattach.model.service.RetryPolicy;
+import app.unattach.utils.Logger;
+import com.google.api.client.googleapis.json.GoogleJsonError;
 
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
 
+/**
+ * Fetches the metadata of search results in batches. Several batches are in flight at once, so that the harvest is
+ * limited by the quota, which the service paces every batch by, rather than by the latency of each round trip.
+ */
 public class GetEmailMetadataTask implements LongTask<GetEmailMetadataTask.Result> {
+  private static final Logger logger = Logger.get();
+  static final int DEFAULT_MAX_BATCHES_IN_FLIGHT = 3;
+
   interface Worker {
-    void getEmailMetadata(int startIndexInclusive, int endIndexExclusive) throws GmailServiceException;
+    /**
+     * @return The emails whose metadata couldn't be fetched, by ID, each with the error it failed with.
+     */
+    Map<String, GoogleJsonError> getEmailMetadata(List<String> emailIds) throws GmailServiceException;
   }
 
   public static record Result(int currentBatchNumber) {}
 
-  private final List<String> emailIds;
-  // (maximum batch size = 100)
-  // batch size = 40 ==> batch quota units = 200 ==> 1 batch / second
-  private final int batchSize = 40;
-  private final int numberOfBatches;
+  private static record Retry(String emailId, long dueNanos) {}
+
+  private static record BatchResult(Map<String, GoogleJsonError> failures, long latencyNanos) {}
+
+  private final MessageIdStream emailIds;
+  // batch size = 10..100 ==> batch quota units = 50..500, paced by the service's quota scheduler
+  private final BatchSizer batchSizer = new BatchSizer();
   private final Worker worker;
+  private final Runnable searchFinisher;
+  private final RetryPolicy retryPolicy;
+  private final int maxBatchesInFlight;
+  private final CompletionService<BatchResult> completionService;
+  // Emails that failed with a transient error are retried in later batches, once their backoff is over.
+  private final Queue<Retry> retries = new PriorityQueue<>(Comparator.comparingLong(Retry::dueNanos));
+  private final Map<String, Integer> emailIdToFailedAttempts = new HashMap<>();
+  private final Map<String, String> failedEmailIdToError = new LinkedHashMap<>();
   private int currentBatchNumber;
+  private int emailsTaken;
+  private int batchesInFlight;
+  private volatile boolean stopped;
+  private boolean finished;
 
-  GetEmailMetadataTask(List<String> emailIds, Worker worker) {
+  /**
+   * @param searchFinisher Called once all emails have been searched through, unless the task was stopped.
+   */
+  GetEmailMetadataTask(MessageIdStream emailIds, Worker worker, Runnable searchFinisher) {
+    this(emailIds, worker, searchFinisher, new RetryPolicy(), DEFAULT_MAX_BATCHES_IN_FLIGHT);
+  }
+
+  GetEmailMetadataTask(MessageIdStream emailIds, Worker worker, Runnable searchFinisher, RetryPolicy retryPolicy,
+                       int maxBatchesInFlight) {
     this.emailIds = emailIds;
-    numberOfBatches = (emailIds.size() + batchSize - 1) / batchSize;
     this.worker = worker;
+    this.searchFinisher = searchFinisher;
+    this.retryPolicy = retryPolicy;
+    this.maxBatchesInFlight = maxBatchesInFlight;
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(maxBatchesInFlight, maxBatchesInFlight, 10, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), runnable -> {
+      Thread thread = new Thread(runnable, "email-metadata-worker");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Idle workers exit, so that an abandoned search doesn't keep threads around.
+    executor.allowCoreThreadTimeOut(true);
+    completionService = new ExecutorCompletionService<>(executor);
   }
 
+  /**
+   * @return The number of steps, which is an estimate while the search is still paging through results.
+   */
   @Override
   public int getNumberOfSteps() {
-    return numberOfBatches;
+    int emailsRemaining = Math.max(0, emailIds.getEstimatedCount() - emailsTaken) + retries.size();
+    int batchSize = batchSizer.getBatchSize();
+    return currentBatchNumber + batchesInFlight + (emailsRemaining + batchSize - 1) / batchSize;
   }
 
   @Override
   public boolean hasMoreSteps() {
-    return currentBatchNumber < numberOfBatches;
+    return batchesInFlight > 0 || emailIds.hasMore() || !retries.isEmpty();
+  }
+
+  /**
+   * Stops paging through search results, if still in progress.
+   */
+  public void stop() {
+    stopped = true;
+    emailIds.stop();
   }
 
+  /**
+   * @return The emails whose metadata couldn't be fetched even after retrying, by ID, each with its last error.
+   */
+  public Map<String, String> getFailedEmails() {
+    return Collections.unmodifiableMap(failedEmailIdToError);
+  }
+
+  /**
+   * Keeps up to the maximum number of batches in flight, and waits for one of them to complete.
+   */
   @Override
   public Result takeStep() throws LongTaskException {
     try {
-      if (currentBatchNumber != 0) {
-        Thread.sleep(1000);
+      submitBatches();
+      if (batchesInFlight > 0) {
+        BatchResult batchResult = completionService.take().get();
+        --batchesInFlight;
+        Map<String, GoogleJsonError> failures = batchResult.failures();
+        int rateLimitedItems = (int) failures.values().stream().filter(RetryPolicy::isRateLimit).count();
+        batchSizer.onBatchCompleted(batchResult.latencyNanos(), rateLimitedItems);
+        failures.forEach(this::onFailure);
+        ++currentBatchNumber;
+      }
+      if (!hasMoreSteps() && !stopped && !finished) {
+        finished = true;
+        searchFinisher.run();
       }
-      final int startIndexInclusive = currentBatchNumber * batchSize;
-      final int endIndexExclusive = Math.min(emailIds.size(), (currentBatchNumber + 1) * batchSize);
-      worker.getEmailMetadata(startIndexInclusive, endIndexExclusive);
-      ++currentBatchNumber;
       return new Result(currentBatchNumber);
     } catch (Throwable t) {
       throw new LongTaskException(t);
     }
   }
+
+  private void submitBatches() throws InterruptedException, GmailServiceException {
+    while (batchesInFlight < maxBatchesInFlight) {
+      int batchSize = batchSizer.getBatchSize();
+      // Only waits for emails if there is nothing else to wait for.
+      List<String> batch = batchesInFlight == 0 ? takeBatch(batchSize) : pollBatch(batchSize);
+      if (batch.isEmpty()) {
+        break;
+      }
+      completionService.submit(() -> {
+        long start = System.nanoTime();
+        Map<String, GoogleJsonError> failures = worker.getEmailMetadata(batch);
+        return new BatchResult(failures, System.nanoTime() - start);
+      });
+      ++batchesInFlight;
+    }
+  }
+
+  private List<String> takeBatch(int batchSize) throws InterruptedException, GmailServiceException {
+    List<String> batch = takeDueRetries(batchSize);
+    if (batch.isEmpty() && !emailIds.hasMore() && !retries.isEmpty()) {
+      TimeUnit.NANOSECONDS.sleep(retries.element().dueNanos() - System.nanoTime());
+      batch = takeDueRetries(batchSize);
+    }
+    if (batch.isEmpty()) {
+      List<String> newEmailIds = emailIds.take(batchSize);
+      emailsTaken += newEmailIds.size();
+      batch.addAll(newEmailIds);
+    } else {
+      batch.addAll(pollNewEmailIds(batchSize - batch.size()));
+    }
+    return batch;
+  }
+
+  private List<String> pollBatch(int batchSize) throws GmailServiceException {
+    List<String> batch = takeDueRetries(batchSize);
+    batch.addAll(pollNewEmailIds(batchSize - batch.size()));
+    return batch;
+  }
+
+  private List<String> pollNewEmailIds(int maxCount) throws GmailServiceException {
+    List<String> newEmailIds = emailIds.poll(maxCount);
+    emailsTaken += newEmailIds.size();
+    return newEmailIds;
+  }
+
+  private List<String> takeDueRetries(int batchSize) {
+    List<String> batch = new ArrayList<>();
+    long now = System.nanoTime();
+    while (batch.size() < batchSize && !retries.isEmpty() && retries.element().dueNanos() <= now) {
+      batch.add(retries.remove().emailId());
+    }
+    return batch;
+  }
+
+  private void onFailure(String emailId, GoogleJsonError error) {
+    int failedAttempts = emailIdToFailedAttempts.merge(emailId, 1, Integer::sum);
+    if (RetryPolicy.isTransient(error) && failedAttempts < retryPolicy.getMaxAttempts()) {
+      long delayMillis = retryPolicy.getBackoffMillis(failedAttempts);
+      logger.warn("Failed to get info about email %s (%s), retrying in %d ms.", emailId, error.getMessage(),
+          delayMillis);
+      retries.add(new Retry(emailId, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis)));
+    } else {
+      logger.error("Failed to get info about email %s: %s", emailId, error.getMessage());
+      failedEmailIdToError.put(emailId, error.getMessage());
+    }
+  }
 }
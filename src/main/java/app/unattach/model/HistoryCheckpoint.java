@@ -0,0 +1,12 @@
+package app.unattach.model;
+
+import java.util.Set;
+
+/**
+ * The point in a mailbox's history up to which the emails matching a query have been searched through. Later searches
+ * with the same query only need to consider emails changed since, and the ones found before but not yet processed.
+ */
+public record HistoryCheckpoint(String emailAddress, String query, String historyId, Set<String> unprocessedEmailIds) {
+  // Searches that find more emails than this don't leave a checkpoint, so that it stays small to save and to search.
+  static final int MAX_UNPROCESSED_EMAIL_IDS = 10_000;
+}
@@ -0,0 +1,56 @@
+package app.unattach.model;
+
+import app.unattach.model.service.GmailServiceException;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the user's labels for a while, since they are needed before every search and run, but rarely change.
+ */
+class LabelCache {
+  static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  interface Loader {
+    SortedMap<String, String> load() throws GmailServiceException;
+  }
+
+  private final Loader loader;
+  private final long ttlNanos;
+  private SortedMap<String, String> idToLabel;
+  private long loadedAtNanos;
+
+  LabelCache(Loader loader) {
+    this(loader, DEFAULT_TTL_MILLIS);
+  }
+
+  LabelCache(Loader loader, long ttlMillis) {
+    this.loader = loader;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+  }
+
+  /**
+   * @return A copy of the labels, which are only loaded if they haven't been, or have expired.
+   */
+  synchronized SortedMap<String, String> get() throws GmailServiceException {
+    if (idToLabel == null || System.nanoTime() - loadedAtNanos >= ttlNanos) {
+      idToLabel = new TreeMap<>(loader.load());
+      loadedAtNanos = System.nanoTime();
+    }
+    return new TreeMap<>(idToLabel);
+  }
+
+  /**
+   * Adds a label that was just created, so that the labels needn't be loaded again.
+   */
+  synchronized void put(String id, String name) {
+    if (idToLabel != null) {
+      idToLabel.put(id, name);
+    }
+  }
+
+  synchronized void invalidate() {
+    idToLabel = null;
+  }
+}
@@ -1,43 +1,65 @@
 package app.unattach.model;
 
-import app.unattach.controller.LongTask;
 import app.unattach.model.attachmentstorage.UserStorage;
 import app.unattach.model.service.GmailService;
 import app.unattach.model.service.GmailServiceException;
 import app.unattach.model.service.GmailServiceManager;
 import app.unattach.model.service.GmailServiceManagerException;
+import app.unattach.model.service.HistoryPage;
+import app.unattach.model.service.HistoryType;
+import app.unattach.model.service.MetadataCallback;
+import app.unattach.model.service.SearchPage;
+import app.unattach.model.service.RawMessage;
 import app.unattach.utils.AttachmentNameExtractor;
 import app.unattach.utils.Logger;
 import app.unattach.utils.MimeMessagePrettyPrinter;
-import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
 import com.google.api.client.googleapis.json.GoogleJsonError;
-import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.FileContent;
 import com.google.api.services.gmail.model.*;
 import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
 
 import javax.mail.MessagingException;
+import javax.mail.Part;
 import javax.mail.internet.MimeMessage;
 import java.io.*;
+import java.nio.file.Files;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static app.unattach.model.GmailLabel.NO_LABEL;
-import static org.apache.commons.codec.binary.Base64.encodeBase64URLSafeString;
 
 public class LiveModel implements Model {
   private static final Logger logger = Logger.get();
+  // Emails changed since a history checkpoint that aren't among this many pages of results are assumed not to match.
+  private static final int MAX_CANDIDATE_SEARCH_PAGES = 10;
+
+  /**
+   * @param knownMatchIds Emails found before but not processed yet, which haven't changed since, and so still match.
+   * @param changedIds Emails added or changed since, which may or may not match.
+   */
+  private record Candidates(Set<String> knownMatchIds, Set<String> changedIds) {}
 
   private final Config config;
   private final UserStorage userStorage;
   private final GmailServiceManager gmailServiceManager;
+  private final MetadataCache metadataCache;
+  private final ExecutorService attachmentExecutor;
   private GmailService service;
-  private List<Email> searchResults;
+  private LabelCache labelCache;
+  private OriginalRemovalQueue originalRemovalQueue;
+  private SearchResults searchResults;
   private String emailAddress;
 
-  public LiveModel(Config config, UserStorage userStorage, GmailServiceManager gmailServiceManager) {
+  public LiveModel(Config config, UserStorage userStorage, GmailServiceManager gmailServiceManager,
+                   MetadataCache metadataCache) {
     this.config = config;
     this.userStorage = userStorage;
     this.gmailServiceManager = gmailServiceManager;
+    this.metadataCache = metadataCache;
+    attachmentExecutor = AttachmentDownloader.createExecutor(AttachmentDownloader.DEFAULT_MAX_PARALLEL_DOWNLOADS);
     configureMimeLibrary();
     reset();
   }
@@ -70,12 +92,14 @@ public class LiveModel implements Model {
 
   private void reset() {
     service = null;
+    labelCache = null;
+    originalRemovalQueue = null;
     emailAddress = null;
     clearPreviousSearchResults();
   }
 
   private void clearPreviousSearchResults() {
-    searchResults = new ArrayList<>();
+    searchResults = new SearchResults(MessageIdStream.of(List.of()));
   }
 
   @Override
@@ -84,7 +108,7 @@ public class LiveModel implements Model {
   }
 
   @Override
-  public void signIn() throws GmailServiceManagerException {
+  public void signIn() throws GmailServiceManagerException, GmailServiceException {
     logger.info("Signing in...");
     configureService();
     try {
@@ -96,12 +120,21 @@ public class LiveModel implements Model {
       signOut();
       configureService();
     }
+    originalRemovalQueue = new OriginalRemovalQueue(config, service, getEmailAddress());
+    removeOriginalsOfInterruptedRun();
   }
 
   private void configureService() throws GmailServiceManagerException {
-    // 250 quota units / user / second
-    // each set of requests should assume they start with clean quota
     service = gmailServiceManager.signIn();
+    labelCache = new LabelCache(service::getIdToLabel);
+  }
+
+  private void removeOriginalsOfInterruptedRun() {
+    try {
+      originalRemovalQueue.flush();
+    } catch (GmailServiceException e) {
+      logger.error("Failed to remove the original emails of an interrupted run.", e);
+    }
   }
 
   @Override
@@ -131,48 +164,130 @@ public class LiveModel implements Model {
   }
 
   @Override
-  public LongTask<ProcessEmailResult> getProcessTask(Email email, ProcessSettings processSettings) {
-    return new ProcessEmailTask(email, e -> processEmail(e, processSettings) /* 40 quota units */);
+  public ProcessEmailsTask getProcessEmailsTask(List<Email> emails, ProcessSettings processSettings) {
+    BatchLabelModifier labelModifier = new BatchLabelModifier(service);
+    ProcessingContext context = ProcessingContext.of(processSettings);
+    return new ProcessEmailsTask(emails, e -> processEmail(e, context, labelModifier), () -> {
+      try {
+        removeProcessedFromCheckpoint(emails);
+        labelModifier.flush();
+        originalRemovalQueue.flush();
+      } finally {
+        service.logRunStatistics();
+      }
+    }, new ProcessEmailsTask.Pauses() {
+      @Override
+      public Instant getPausedUntil() {
+        return service.getPausedUntil();
+      }
+
+      @Override
+      public void cancel() {
+        service.cancelPauses();
+      }
+    }, ProcessEmailsTask.DEFAULT_NUMBER_OF_WORKERS);
   }
 
-  private ProcessEmailResult processEmail(Email email, ProcessSettings processSettings)
+  private ProcessEmailResult processEmail(Email email, ProcessingContext context, BatchLabelModifier labelModifier)
       throws IOException, MessagingException, GmailServiceException {
-    Message message = service.getRawMessage(email.getGmailId()); // 5 quota units
-    logger.info("Label IDs of the original email: " + message.getLabelIds());
-    GmailService.trackInDebugMode(logger, message);
-    MimeMessage mimeMessage = GmailService.getMimeMessage(message);
-    logger.info("MIME structure:%n%s", MimeMessagePrettyPrinter.prettyPrint(mimeMessage));
-    String newId = null;
+    ProcessOption processOption = context.getProcessSettings().processOption();
+    if (Constants.STRUCTURE_IN_PROCESS_LOG) {
+      email.setProcessLog("");
+    }
+    if (hasNothingToProcess(email, processOption)) {
+      logger.info("Skipping the email, since its structure shows no attachments to process.");
+      addDownloadedLabel(processOption, email.getGmailId(), labelModifier);
+      return new ProcessEmailResult(null, new TreeSet<>());
+    }
+    if (AttachmentDownloader.canDownload(processOption)) {
+      Set<String> attachmentNames =
+          AttachmentDownloader.download(service, userStorage, attachmentExecutor, email, context,
+              searchResults.getStructure(email.getGmailId()));
+      if (attachmentNames != null) {
+        addDownloadedLabel(processOption, email.getGmailId(), labelModifier);
+        return new ProcessEmailResult(null, attachmentNames);
+      }
+      logger.warn("Falling back to downloading the whole email.");
+    }
+    // The body parts of the email are read from the raw message as needed, so it's kept open until processed.
+    try (RawMessage rawMessage = service.getRawMessage(email.getGmailId())) { // 5 quota units
+      Message message = rawMessage.getMetadata();
+      logger.info("Label IDs of the original email: " + message.getLabelIds());
+      GmailService.trackInDebugMode(logger, rawMessage);
+      MimeMessage mimeMessage = rawMessage.getMimeMessage(context.getSession());
+      return processMimeMessage(email, context, labelModifier, message, mimeMessage);
+    }
+  }
+
+  private ProcessEmailResult processMimeMessage(Email email, ProcessingContext context,
+                                                BatchLabelModifier labelModifier, Message message,
+                                                MimeMessage mimeMessage)
+      throws IOException, MessagingException, GmailServiceException {
+    ProcessSettings processSettings = context.getProcessSettings();
     ProcessOption processOption = processSettings.processOption();
+    String structure = logStructure(email, "MIME structure", mimeMessage, null);
+    String newId = null;
     if (processOption.backupEmail()) {
       backupEmail(email, processSettings, mimeMessage);
     }
     Set<String> originalAttachmentNames = new TreeSet<>();
-    mimeMessage = EmailProcessor.process(userStorage, email, mimeMessage, processSettings, originalAttachmentNames);
-    if (processOption.shouldDownload() && !processOption.shouldRemove() &&
-        !NO_LABEL.id().equals(processOption.downloadedLabelId())) {
-      service.addLabel(message.getId(), processOption.downloadedLabelId());
-    }
+    Set<Part> modifiedParts = new HashSet<>();
+    mimeMessage = EmailProcessor.process(userStorage, email, mimeMessage, context, originalAttachmentNames,
+        modifiedParts);
+    addDownloadedLabel(processOption, message.getId(), labelModifier);
     if (processOption.shouldRemove() && !originalAttachmentNames.isEmpty()) {
-      logger.info("New MIME structure:%n%s", MimeMessagePrettyPrinter.prettyPrint(mimeMessage));
-      updateRawMessage(message, mimeMessage);
+      logStructure(email, "New MIME structure", mimeMessage, structure);
       removeUnknownLabels(processSettings, message);
+      addUnattachLabels(processOption, message);
       logger.info("Label IDs of the email being inserted: " + message.getLabelIds());
-      Message newMessage = service.insertMessage(message); // 25 quota units
+      Message newMessage = insertMessage(message, mimeMessage, modifiedParts); // 25 quota units
       newId = newMessage.getId();
       GmailService.trackInDebugMode(logger, newMessage);
-      if (processOption.shouldDownload() && !NO_LABEL.id().equals(processOption.downloadedLabelId())) {
-        service.addLabel(newMessage.getId(), processOption.downloadedLabelId());
-      }
-      if (!NO_LABEL.id().equals(processOption.removedLabelId())) {
-        service.addLabel(newMessage.getId(), processOption.removedLabelId());
-      }
-      // 5-10 quota units
-      service.removeMessage(message.getId(), processOption.permanentlyRemoveOriginal());
+      // Removed in bulk later, but queued only now that the replacement exists.
+      originalRemovalQueue.add(message.getId(), processOption.permanentlyRemoveOriginal());
     }
     return new ProcessEmailResult(newId, originalAttachmentNames);
   }
 
+  /**
+   * Logs a summary of the structure of the email, which is only computed if it is logged or kept in the process log.
+   *
+   * @param previousStructure The structure before processing, kept in the process log along with this one, if any.
+   * @return The summary of the structure, or null if it wasn't computed.
+   */
+  private String logStructure(Email email, String title, MimeMessage mimeMessage, String previousStructure)
+      throws IOException, MessagingException {
+    if (!logger.isInfoEnabled() && !Constants.STRUCTURE_IN_PROCESS_LOG) {
+      return null;
+    }
+    String structure = MimeMessagePrettyPrinter.summarize(mimeMessage);
+    logger.info("%s: %s", title, structure);
+    if (Constants.STRUCTURE_IN_PROCESS_LOG) {
+      email.setProcessLog(previousStructure == null ? structure : previousStructure + " -> " + structure);
+    }
+    return structure;
+  }
+
+  /**
+   * @return Whether the structure of the email, as found by the search, shows that processing it would neither change
+   *         it, nor download or back up anything. An email with an unknown or incomplete structure is processed.
+   */
+  private boolean hasNothingToProcess(Email email, ProcessOption processOption) {
+    if (processOption.backupEmail()) {
+      return false;
+    }
+    MessagePart structure = searchResults.getStructure(email.getGmailId());
+    List<MessagePart> attachmentParts = AttachmentDetector.detect(structure, processOption.shouldProcessEmbedded());
+    return attachmentParts != null && attachmentParts.isEmpty();
+  }
+
+  private void addDownloadedLabel(ProcessOption processOption, String emailId, BatchLabelModifier labelModifier) {
+    if (processOption.shouldDownload() && !processOption.shouldRemove() &&
+        !NO_LABEL.id().equals(processOption.downloadedLabelId())) {
+      labelModifier.addLabel(emailId, processOption.downloadedLabelId());
+    }
+  }
+
   private void removeUnknownLabels(ProcessSettings processSettings, Message message) {
     if (message.getLabelIds() == null) {
       return;
@@ -187,61 +302,250 @@ public class LiveModel implements Model {
     }
   }
 
+  /**
+   * Adds the Unattach labels to the email before it is inserted, so that the new email never exists without them.
+   */
+  private void addUnattachLabels(ProcessOption processOption, Message message) {
+    Set<String> labelIds = message.getLabelIds() == null ? new TreeSet<>() : new TreeSet<>(message.getLabelIds());
+    if (processOption.shouldDownload() && isLabelSet(processOption.downloadedLabelId())) {
+      labelIds.add(processOption.downloadedLabelId());
+    }
+    if (isLabelSet(processOption.removedLabelId())) {
+      labelIds.add(processOption.removedLabelId());
+    }
+    message.setLabelIds(new ArrayList<>(labelIds));
+  }
+
+  private static boolean isLabelSet(String labelId) {
+    return labelId != null && !NO_LABEL.id().equals(labelId);
+  }
+
   private void backupEmail(Email email, ProcessSettings processSettings, MimeMessage mimeMessage)
           throws IOException, MessagingException {
     String filename = email.getGmailId() + ".eml";
     userStorage.saveMessage(mimeMessage, processSettings.targetDirectory(), filename);
   }
 
-  private void updateRawMessage(Message message, MimeMessage mimeMessage) throws IOException, MessagingException {
-    try (ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
-      mimeMessage.writeTo(buffer);
-      String raw = encodeBase64URLSafeString(buffer.toByteArray());
-      message.setRaw(raw);
+  /**
+   * Uploads the email from a temporary file, rather than within the JSON body, so that it is neither held in memory
+   * nor base64-encoded. The parts that weren't modified are uploaded as they were downloaded.
+   */
+  private Message insertMessage(Message message, MimeMessage mimeMessage, Set<Part> modifiedParts)
+      throws IOException, MessagingException, GmailServiceException {
+    File file = File.createTempFile("unattach-", ".eml");
+    try {
+      try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+        MimeMessageWriter.write(mimeMessage, modifiedParts, os);
+      }
+      return service.insertMessage(message, new FileContent("message/rfc822", file));
+    } finally {
+      Files.deleteIfExists(file.toPath());
     }
   }
 
   @Override
   public GetEmailMetadataTask getSearchTask(String query) throws GmailServiceException {
+    return getSearchTask(query, false);
+  }
+
+  @Override
+  public GetEmailMetadataTask getIncrementalSearchTask(String query) throws GmailServiceException {
+    return getSearchTask(query, true);
+  }
+
+  private GetEmailMetadataTask getSearchTask(String query, boolean incremental) throws GmailServiceException {
     logger.info("Getting email labels...");
     SortedMap<String, String> idToLabel = getIdToLabel();
-    logger.info("Searching with query '%s'...", query);
-    clearPreviousSearchResults();
-    List<Message> messages = service.search(query);
-    logger.info("Found %d results.", messages.size());
-    ArrayList<String> emailIdsToProcess =
-        messages.stream().map(Message::getId).collect(Collectors.toCollection(ArrayList::new));
-
-    JsonBatchCallback<Message> perEmailCallback = new JsonBatchCallback<>() {
-      @Override
-      public void onFailure(GoogleJsonError googleJsonError, HttpHeaders httpHeaders) throws IOException {
-        throw new IOException(googleJsonError.getMessage());
+    // Taken before searching, so that emails added during the search are also considered by the next one.
+    String emailAddress = getEmailAddress();
+    String historyId = service.getHistoryId();
+    invalidateChangedMetadata(emailAddress, historyId);
+    Candidates candidates = incremental ? getCandidatesSinceCheckpoint(emailAddress, query) : null;
+    MessageIdStream emailIdsToProcess;
+    if (candidates == null) {
+      logger.info("Searching with query '%s'...", query);
+      emailIdsToProcess = MessageIdStream.startPaging(pageToken -> service.search(query, pageToken));
+    } else if (candidates.changedIds().isEmpty()) {
+      logger.info("No emails were changed since the last search with query '%s', which left %d emails unprocessed.",
+          query, candidates.knownMatchIds().size());
+      emailIdsToProcess = MessageIdStream.of(List.copyOf(candidates.knownMatchIds()));
+    } else {
+      logger.info("Searching with query '%s' among %d emails changed since the last search, which left %d emails " +
+          "unprocessed...", query, candidates.changedIds().size(), candidates.knownMatchIds().size());
+      emailIdsToProcess = MessageIdStream.startPaging(getCandidatePageSource(query, candidates));
+    }
+    // Batches of an earlier, abandoned search may still be completing, so each search has its own results.
+    SearchResults results = new SearchResults(emailIdsToProcess);
+    searchResults = results;
+
+    return new GetEmailMetadataTask(emailIdsToProcess, emailIds -> {
+        List<String> emailIdsToFetch = new ArrayList<>(emailIds.size());
+        for (String emailId : emailIds) {
+          Message cachedMessage = metadataCache.get(emailId);
+          if (cachedMessage == null) {
+            emailIdsToFetch.add(emailId);
+          } else {
+            results.add(getEmail(idToLabel, cachedMessage), cachedMessage.getPayload());
+          }
+        }
+        Map<String, GoogleJsonError> failures = new LinkedHashMap<>();
+        if (emailIdsToFetch.isEmpty()) {
+          return failures;
+        }
+        logger.info("Getting info about %d emails...", emailIdsToFetch.size());
+        service.batchGetMetadata(emailIdsToFetch, new MetadataCallback() {
+          @Override
+          public void onSuccess(Message message) {
+            metadataCache.put(message);
+            results.add(getEmail(idToLabel, message), message.getPayload());
+          }
+
+          @Override
+          public void onFailure(String messageId, GoogleJsonError error) {
+            failures.put(messageId, error);
+          }
+        });
+        return failures;
+      },
+      () -> {
+        // The emails found count as unprocessed until a run processes them, so that the next search still shows them.
+        Set<String> foundEmailIds = emailIdsToProcess.getReceivedIds();
+        if (foundEmailIds.size() > HistoryCheckpoint.MAX_UNPROCESSED_EMAIL_IDS) {
+          logger.info("Found too many emails to keep track of, so the next search will search through all emails.");
+          config.removeHistoryCheckpoint();
+        } else {
+          config.saveHistoryCheckpoint(new HistoryCheckpoint(emailAddress, query, historyId, foundEmailIds));
+        }
+        metadataCache.save();
+        service.logRunStatistics();
       }
+    );
+  }
 
-      @Override
-      public void onSuccess(Message message, HttpHeaders httpHeaders) {
-        GmailService.trackInDebugMode(logger, message);
-        Map<String, String> headerMap = GmailService.getHeaderMap(message);
-        String emailId = message.getId();
-        List<String> labelIds = message.getLabelIds();
-        List<GmailLabel> labels = getLabelsForIds(idToLabel, labelIds);
-        String from = headerMap.get("from");
-        String to = headerMap.get("to");
-        String subject = headerMap.get("subject");
-        long timestamp = message.getInternalDate();
-        List<String> attachmentNames = AttachmentNameExtractor.getAttachmentNames(message);
-        Email email = new Email(emailId, labels, from, to, subject, timestamp, message.getSizeEstimate(),
-            attachmentNames);
-        searchResults.add(email);
+  /**
+   * Drops cached metadata of emails that were deleted or had their labels changed since the cache was last brought up
+   * to date, which it then is as of the given history ID.
+   */
+  private void invalidateChangedMetadata(String emailAddress, String historyId) throws GmailServiceException {
+    String cacheHistoryId = metadataCache.getHistoryId();
+    if (!emailAddress.equals(metadataCache.getEmailAddress()) || cacheHistoryId == null) {
+      metadataCache.reset(emailAddress, historyId);
+      return;
+    }
+    Set<HistoryType> historyTypes = Set.of(HistoryType.MESSAGE_DELETED, HistoryType.LABEL_ADDED,
+        HistoryType.LABEL_REMOVED);
+    Set<String> changedEmailIds = getChangedEmailIds(cacheHistoryId, historyTypes);
+    if (changedEmailIds == null) {
+      logger.info("The metadata cache is too old to bring up to date, so emptying it.");
+      metadataCache.reset(emailAddress, historyId);
+    } else {
+      metadataCache.invalidate(changedEmailIds);
+      metadataCache.setHistoryId(historyId);
+    }
+  }
+
+  /**
+   * @return The emails that may match the query without having been processed since the last search with it, or null
+   *         if all emails need searching. Besides added emails, these include emails whose labels changed, since that
+   *         can make an older email match the query, and emails found before but not processed yet.
+   */
+  private Candidates getCandidatesSinceCheckpoint(String emailAddress, String query) throws GmailServiceException {
+    HistoryCheckpoint checkpoint = config.getHistoryCheckpoint();
+    if (checkpoint == null || !checkpoint.emailAddress().equals(emailAddress) || !checkpoint.query().equals(query)) {
+      logger.info("There is no history checkpoint for the query, so searching through all emails.");
+      return null;
+    }
+    // Deleted emails are included, so that the ones found before are no longer taken to match.
+    Set<HistoryType> historyTypes = Set.of(HistoryType.MESSAGE_ADDED, HistoryType.MESSAGE_DELETED,
+        HistoryType.LABEL_ADDED, HistoryType.LABEL_REMOVED);
+    Set<String> changedEmailIds = getChangedEmailIds(checkpoint.historyId(), historyTypes);
+    if (changedEmailIds == null) {
+      logger.info("The history checkpoint has expired, so searching through all emails.");
+      return null;
+    }
+    Set<String> knownMatchIds = new HashSet<>(checkpoint.unprocessedEmailIds());
+    knownMatchIds.removeAll(changedEmailIds);
+    return new Candidates(knownMatchIds, changedEmailIds);
+  }
+
+  /**
+   * Gmail can't be asked which of the given emails match a query, so the search is still paged through, but only the
+   * changed emails are kept, after the known matches. Paging stops once all changed emails were found, or after
+   * {@link #MAX_CANDIDATE_SEARCH_PAGES} pages, whichever comes first. Many changed emails are never found, e.g. the
+   * replacements inserted by a run, or emails whose labels no longer match, so paging usually stops at that bound. An
+   * older email that only matches after its labels changed, and is listed beyond the bound, is left for a full search.
+   */
+  private MessageIdStream.PageSource getCandidatePageSource(String query, Candidates candidates) {
+    Set<String> changedNotFound = new HashSet<>(candidates.changedIds());
+    AtomicInteger pageCount = new AtomicInteger();
+    return pageToken -> {
+      SearchPage page = service.search(query, pageToken).retainAll(candidates.changedIds());
+      page.messageIds().forEach(changedNotFound::remove);
+      List<String> messageIds = new ArrayList<>(page.messageIds());
+      if (pageToken == null) {
+        messageIds.addAll(0, candidates.knownMatchIds());
+      }
+      long resultSizeEstimate = candidates.knownMatchIds().size() + page.resultSizeEstimate();
+      if (changedNotFound.isEmpty()) {
+        return new SearchPage(messageIds, null, resultSizeEstimate);
       }
+      if (pageCount.incrementAndGet() >= MAX_CANDIDATE_SEARCH_PAGES && page.nextPageToken() != null) {
+        logger.info("Stopped searching after %d pages, assuming the %d changed emails not found don't match.",
+            MAX_CANDIDATE_SEARCH_PAGES, changedNotFound.size());
+        return new SearchPage(messageIds, null, resultSizeEstimate);
+      }
+      return new SearchPage(messageIds, page.nextPageToken(), resultSizeEstimate);
     };
+  }
 
-    return new GetEmailMetadataTask(emailIdsToProcess, (startIndexInclusive, endIndexExclusive) -> {
-        logger.info("Getting info about emails with index [%d, %d)...", startIndexInclusive, endIndexExclusive);
-        List<String> emailIds = emailIdsToProcess.subList(startIndexInclusive, endIndexExclusive);
-        service.batchGetMetadata(emailIds, perEmailCallback);
+  /**
+   * Keeps the emails processed by the run from being shown by the next incremental search, unless they change again.
+   */
+  private void removeProcessedFromCheckpoint(List<Email> emails) {
+    HistoryCheckpoint checkpoint = config.getHistoryCheckpoint();
+    if (checkpoint == null || !checkpoint.emailAddress().equals(emailAddress)) {
+      return;
+    }
+    Set<String> unprocessedEmailIds = new LinkedHashSet<>(checkpoint.unprocessedEmailIds());
+    for (Email email : emails) {
+      if (email.getStatus() == EmailStatus.PROCESSED) {
+        unprocessedEmailIds.remove(email.getGmailId());
       }
-    );
+    }
+    config.saveHistoryCheckpoint(new HistoryCheckpoint(checkpoint.emailAddress(), checkpoint.query(),
+        checkpoint.historyId(), unprocessedEmailIds));
+  }
+
+  /**
+   * @return The IDs of emails changed in the given ways since the given history ID, or null if it's too old.
+   */
+  private Set<String> getChangedEmailIds(String startHistoryId, Set<HistoryType> historyTypes)
+      throws GmailServiceException {
+    Set<String> changedEmailIds = new HashSet<>();
+    String pageToken = null;
+    do {
+      HistoryPage page = service.listHistory(startHistoryId, historyTypes, pageToken);
+      if (page == null) {
+        return null;
+      }
+      changedEmailIds.addAll(page.messageIds());
+      pageToken = page.nextPageToken();
+    } while (pageToken != null);
+    return changedEmailIds;
+  }
+
+  private Email getEmail(SortedMap<String, String> idToLabel, Message message) {
+    GmailService.trackInDebugMode(logger, message);
+    Map<String, String> headerMap = GmailService.getHeaderMap(message);
+    String emailId = message.getId();
+    List<String> labelIds = message.getLabelIds();
+    List<GmailLabel> labels = getLabelsForIds(idToLabel, labelIds);
+    String from = headerMap.get("from");
+    String to = headerMap.get("to");
+    String subject = headerMap.get("subject");
+    long timestamp = message.getInternalDate();
+    List<String> attachmentNames = AttachmentNameExtractor.getAttachmentNames(message);
+    return new Email(emailId, labels, from, to, subject, timestamp, message.getSizeEstimate(), attachmentNames);
   }
 
   private List<GmailLabel> getLabelsForIds(SortedMap<String, String> idToLabel, List<String> labelIds) {
@@ -253,12 +557,19 @@ public class LiveModel implements Model {
 
   @Override
   public List<Email> getSearchResults() {
-    return searchResults;
+    return searchResults.toList();
   }
 
   @Override
   public SortedMap<String, String> getIdToLabel() throws GmailServiceException {
-    return service.getIdToLabel();
+    return labelCache.get();
+  }
+
+  @Override
+  public void invalidateLabels() {
+    if (labelCache != null) {
+      labelCache.invalidate();
+    }
   }
 
   @Override
@@ -272,6 +583,7 @@ public class LiveModel implements Model {
     labelColor.setTextColor("#fb4c2f");
     labelIn.setColor(labelColor);
     Label labelOut = service.createLabel(labelIn);
+    labelCache.put(labelOut.getId(), labelOut.getName());
     return labelOut.getId();
   }
 
@@ -0,0 +1,144 @@
+package app.unattach.model;
+
+import app.unattach.model.service.GmailServiceException;
+import app.unattach.model.service.SearchPage;
+import app.unattach.utils.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Message IDs of search results, made available page by page while the rest of the search is still being paged
+ * through in the background. This lets metadata be fetched for the first results before the whole listing is known.
+ */
+class MessageIdStream {
+  private static final Logger logger = Logger.get();
+
+  interface PageSource {
+    SearchPage getPage(String pageToken) throws GmailServiceException;
+  }
+
+  private final Deque<String> pendingIds = new ArrayDeque<>();
+  private final Map<String, Integer> idToPosition = new ConcurrentHashMap<>();
+  private int receivedCount;
+  private long resultSizeEstimate;
+  private boolean finished;
+  private Throwable failure;
+  private volatile boolean stopped;
+
+  private MessageIdStream() {}
+
+  static MessageIdStream of(List<String> messageIds) {
+    MessageIdStream stream = new MessageIdStream();
+    stream.addPage(new SearchPage(messageIds, null, messageIds.size()));
+    stream.finish(null);
+    return stream;
+  }
+
+  static MessageIdStream startPaging(PageSource pageSource) {
+    MessageIdStream stream = new MessageIdStream();
+    Thread thread = new Thread(() -> stream.pageThrough(pageSource), "search-pager");
+    thread.setDaemon(true);
+    thread.start();
+    return stream;
+  }
+
+  private void pageThrough(PageSource pageSource) {
+    try {
+      String pageToken = null;
+      do {
+        SearchPage page = pageSource.getPage(pageToken);
+        addPage(page);
+        pageToken = page.nextPageToken();
+      } while (pageToken != null && !stopped);
+      logger.info("Found %d results.", getReceivedCount());
+      finish(null);
+    } catch (Throwable t) {
+      finish(t);
+    }
+  }
+
+  private synchronized void addPage(SearchPage page) {
+    for (String messageId : page.messageIds()) {
+      idToPosition.putIfAbsent(messageId, idToPosition.size());
+    }
+    pendingIds.addAll(page.messageIds());
+    receivedCount += page.messageIds().size();
+    resultSizeEstimate = page.resultSizeEstimate();
+    notifyAll();
+  }
+
+  private synchronized void finish(Throwable failure) {
+    this.failure = failure;
+    finished = true;
+    notifyAll();
+  }
+
+  /**
+   * Waits until at least one ID is available, or the search is over.
+   *
+   * @return Up to the given number of IDs, or an empty list if there are no more.
+   */
+  synchronized List<String> take(int maxCount) throws InterruptedException, GmailServiceException {
+    while (pendingIds.isEmpty() && !finished) {
+      wait();
+    }
+    return poll(maxCount);
+  }
+
+  /**
+   * @return Up to the given number of IDs that are available right away, possibly none.
+   */
+  synchronized List<String> poll(int maxCount) throws GmailServiceException {
+    if (failure != null) {
+      throw new GmailServiceException(new ExecutionException(failure));
+    }
+    List<String> messageIds = new ArrayList<>(Math.min(maxCount, pendingIds.size()));
+    while (messageIds.size() < maxCount && !pendingIds.isEmpty()) {
+      messageIds.add(pendingIds.poll());
+    }
+    return messageIds;
+  }
+
+  synchronized boolean hasMore() {
+    return !finished || failure != null || !pendingIds.isEmpty();
+  }
+
+  synchronized int getReceivedCount() {
+    return receivedCount;
+  }
+
+  /**
+   * @return The number of IDs received so far, or Gmail's estimate of the total while the search is still running.
+   */
+  synchronized int getEstimatedCount() {
+    return finished ? receivedCount : (int) Math.max(receivedCount, resultSizeEstimate);
+  }
+
+  /**
+   * @return The position of the ID in the search results, or {@link Integer#MAX_VALUE} if it wasn't received.
+   */
+  int getPosition(String messageId) {
+    return idToPosition.getOrDefault(messageId, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @return The IDs received so far.
+   */
+  Set<String> getReceivedIds() {
+    return Set.copyOf(idToPosition.keySet());
+  }
+
+  /**
+   * Stops paging after the current page.
+   */
+  void stop() {
+    stopped = true;
+  }
+}
@@ -0,0 +1,25 @@
+package app.unattach.model;
+
+import com.google.api.services.gmail.model.Message;
+
+import java.util.Collection;
+
+/**
+ * Metadata of messages seen by earlier searches, so that repeated searches only fetch metadata of new messages.
+ *
+ * The cache is valid for one account as of a history ID. Messages changed since then have to be invalidated before
+ * the cache is read from.
+ */
+public interface MetadataCache {
+  String getEmailAddress();
+  String getHistoryId();
+  Message get(String messageId);
+  void put(Message message);
+  void invalidate(Collection<String> messageIds);
+  void setHistoryId(String historyId);
+  /**
+   * Empties the cache, and starts it over for the given account.
+   */
+  void reset(String emailAddress, String historyId);
+  void save();
+}
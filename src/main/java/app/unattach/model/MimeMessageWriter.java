@@ -0,0 +1,125 @@
+package app.unattach.model;
+
+import javax.activation.DataHandler;
+import javax.mail.BodyPart;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.internet.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Writes an email parsed from its original content, once some of its parts were modified. Unlike
+ * {@link MimeMessage#writeTo(OutputStream)} after {@link MimeMessage#saveChanges()}, which decodes and re-encodes every
+ * part, the parts that weren't modified are copied as they were downloaded, and only the modified parts and the
+ * multiparts containing them are serialized anew.
+ */
+class MimeMessageWriter {
+  private static final byte[] NEW_LINE = {'\r', '\n'};
+
+  private final OutputStream os;
+  private final Set<Part> modifiedParts;
+  // the modified parts and the parts containing them
+  private final Set<Part> changedParts = new HashSet<>();
+
+  private MimeMessageWriter(OutputStream os, Set<Part> modifiedParts) {
+    this.os = os;
+    this.modifiedParts = modifiedParts;
+    for (Part part : modifiedParts) {
+      addWithAncestors(part);
+    }
+  }
+
+  /**
+   * @param modifiedParts The parts whose content was replaced, or whose sub-parts were removed.
+   */
+  static void write(MimeMessage mimeMessage, Set<Part> modifiedParts, OutputStream os)
+      throws IOException, MessagingException {
+    new MimeMessageWriter(os, modifiedParts).writePart(mimeMessage);
+  }
+
+  private void addWithAncestors(Part part) {
+    while (part != null && changedParts.add(part)) {
+      if (!(part instanceof BodyPart bodyPart) || bodyPart.getParent() == null) {
+        return;
+      }
+      part = bodyPart.getParent().getParent();
+    }
+  }
+
+  private void writePart(Part part) throws IOException, MessagingException {
+    if (!changedParts.contains(part)) {
+      writeHeaders(part);
+      try (InputStream is = getRawInputStream(part)) {
+        is.transferTo(os);
+      }
+    } else if (part.isMimeType("multipart/*") && part.getContent() instanceof Multipart multipart) {
+      writeHeaders(part);
+      writeMultipart(part, multipart);
+    } else if (modifiedParts.contains(part)) {
+      // Setting the content of a part removes its content headers, so they are set for the new content.
+      DataHandler dataHandler = part.getDataHandler();
+      part.setHeader("Content-Type", dataHandler.getContentType());
+      part.setHeader("Content-Transfer-Encoding", MimeUtility.getEncoding(dataHandler));
+      part.writeTo(os);
+    } else {
+      throw new MessagingException("Only multiparts can contain modified parts: " + part.getContentType());
+    }
+  }
+
+  private void writeHeaders(Part part) throws IOException, MessagingException {
+    Enumeration<String> headerLines = ((MimePart) part).getAllHeaderLines();
+    while (headerLines.hasMoreElements()) {
+      writeLine(headerLines.nextElement());
+    }
+    os.write(NEW_LINE);
+  }
+
+  /**
+   * Writes the multipart the way {@link MimeMultipart#writeTo(OutputStream)} does, keeping its boundary.
+   */
+  private void writeMultipart(Part part, Multipart multipart) throws IOException, MessagingException {
+    String boundary = new ContentType(part.getContentType()).getParameter("boundary");
+    if (boundary == null) {
+      throw new MessagingException("Missing boundary: " + part.getContentType());
+    }
+    if (multipart.getCount() == 0) {
+      throw new MessagingException("Empty multipart: " + part.getContentType());
+    }
+    if (multipart instanceof MimeMultipart mimeMultipart && mimeMultipart.getPreamble() != null) {
+      String preamble = mimeMultipart.getPreamble();
+      os.write(preamble.getBytes(StandardCharsets.ISO_8859_1));
+      if (!preamble.isEmpty() && !preamble.endsWith("\r") && !preamble.endsWith("\n")) {
+        os.write(NEW_LINE);
+      }
+    }
+    for (int i = 0; i < multipart.getCount(); ++i) {
+      writeLine("--" + boundary);
+      writePart(multipart.getBodyPart(i));
+      os.write(NEW_LINE);
+    }
+    writeLine("--" + boundary + "--");
+  }
+
+  // JavaMail reads and writes header lines as ISO-8859-1, so they are written back byte for byte.
+  private void writeLine(String line) throws IOException {
+    os.write(line.getBytes(StandardCharsets.ISO_8859_1));
+    os.write(NEW_LINE);
+  }
+
+  private static InputStream getRawInputStream(Part part) throws MessagingException {
+    if (part instanceof MimeBodyPart mimeBodyPart) {
+      return mimeBodyPart.getRawInputStream();
+    }
+    if (part instanceof MimeMessage mimeMessage) {
+      return mimeMessage.getRawInputStream();
+    }
+    throw new MessagingException("Unable to get the original content of the part: " + part.getContentType());
+  }
+}
@@ -1,6 +1,5 @@
 package app.unattach.model;
 
-import app.unattach.controller.LongTask;
 import app.unattach.utils.Logger;
 import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
 
@@ -12,7 +11,7 @@ public class MockModel implements Model {
 
   private final Config config = new BaseConfig();
   private final Random random = new Random(1337);
-  private ArrayList<Email> emails = new ArrayList<>();
+  private SearchResults searchResults = new SearchResults(MessageIdStream.of(List.of()));
 
   @Override
   public String createLabel(String name) {
@@ -28,26 +27,33 @@ public class MockModel implements Model {
   public GetEmailMetadataTask getSearchTask(String query) {
     int minEmailSizeInMb = 1;
     List<String> emailIds = new ArrayList<>();
-    emails = new ArrayList<>();
     int minEmailSizeInBytes = minEmailSizeInMb * (int) Math.pow(2, 20);
     int maxEmailId = 15;
     for (int i = minEmailSizeInBytes / 1000 / 1000; i < maxEmailId; ++i) {
       String emailId = String.valueOf(i);
       emailIds.add(emailId);
     }
-    return new GetEmailMetadataTask(emailIds, (startIndexInclusive, endIndexExclusive) -> {
-      for (int i = minEmailSizeInBytes / 1000 / 1000; i < maxEmailId; ++i) {
-        if (startIndexInclusive <= i && i < endIndexExclusive) {
-          String emailId = String.valueOf(i);
-          List<GmailLabel> labels =
-              Arrays.asList(new GmailLabel("INBOX", "INBOX"), new GmailLabel("IMPORTANT", "IMPORTANT"));
-          emails.add(new Email(emailId, labels,
-              "john.doe@example.com", "jane.doe@example.com",
-              "Subject " + i, System.currentTimeMillis(),
-              i * (int) Math.pow(2, 20), Collections.singletonList("data.zip")));
-        }
+    MessageIdStream emailIdStream = MessageIdStream.of(emailIds);
+    // Metadata batches are fetched concurrently, so the emails are collected the same way as by the live model.
+    SearchResults results = new SearchResults(emailIdStream);
+    searchResults = results;
+    return new GetEmailMetadataTask(emailIdStream, emailIdsToFetch -> {
+      for (String emailId : emailIdsToFetch) {
+        int i = Integer.parseInt(emailId);
+        List<GmailLabel> labels =
+            Arrays.asList(new GmailLabel("INBOX", "INBOX"), new GmailLabel("IMPORTANT", "IMPORTANT"));
+        results.add(new Email(emailId, labels,
+            "john.doe@example.com", "jane.doe@example.com",
+            "Subject " + i, System.currentTimeMillis(),
+            i * (int) Math.pow(2, 20), Collections.singletonList("data.zip")), null);
       }
-    });
+      return Map.of();
+    }, () -> {});
+  }
+
+  @Override
+  public GetEmailMetadataTask getIncrementalSearchTask(String query) {
+    return getSearchTask(query);
   }
 
   @Override
@@ -57,7 +63,7 @@ public class MockModel implements Model {
 
   @Override
   public List<Email> getSearchResults() {
-    return emails;
+    return searchResults.toList();
   }
 
   @Override
@@ -70,14 +76,20 @@ public class MockModel implements Model {
   }
 
   @Override
-  public LongTask<ProcessEmailResult> getProcessTask(Email email, ProcessSettings processSettings) {
-    return new ProcessEmailTask(email, e -> {
-      if (random.nextBoolean()) {
-        return new ProcessEmailResult("mock-new-unique-id", Collections.singleton(e.getGmailId()));
-      } else {
-        throw new IOException("Something went wrong.");
-      }
-    });
+  public void invalidateLabels() {}
+
+  @Override
+  public ProcessEmailsTask getProcessEmailsTask(List<Email> emails, ProcessSettings processSettings) {
+    return new ProcessEmailsTask(emails, this::processEmail, () -> {}, ProcessEmailsTask.Pauses.NONE,
+        ProcessEmailsTask.DEFAULT_NUMBER_OF_WORKERS);
+  }
+
+  private ProcessEmailResult processEmail(Email email) throws IOException {
+    if (random.nextBoolean()) {
+      return new ProcessEmailResult("mock-new-unique-id", Collections.singleton(email.getGmailId()));
+    } else {
+      throw new IOException("Something went wrong.");
+    }
   }
 
   @Override
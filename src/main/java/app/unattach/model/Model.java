@@ -1,6 +1,5 @@
 package app.unattach.model;
 
-import app.unattach.controller.LongTask;
 import app.unattach.model.service.GmailServiceException;
 import app.unattach.model.service.GmailServiceManagerException;
 import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
@@ -14,11 +13,13 @@ public interface Model {
   Config getConfig();
   String getEmailAddress() throws GmailServiceException;
   SortedMap<String, String> getIdToLabel() throws GmailServiceException;
-  LongTask<ProcessEmailResult> getProcessTask(Email email, ProcessSettings processSettings);
+  void invalidateLabels();
+  ProcessEmailsTask getProcessEmailsTask(List<Email> emails, ProcessSettings processSettings);
   DefaultArtifactVersion getLatestVersion() throws IOException, InterruptedException;
   List<Email> getSearchResults();
   GetEmailMetadataTask getSearchTask(String query) throws GmailServiceException;
-  void signIn() throws GmailServiceManagerException;
+  GetEmailMetadataTask getIncrementalSearchTask(String query) throws GmailServiceException;
+  void signIn() throws GmailServiceManagerException, GmailServiceException;
   void signOut() throws GmailServiceManagerException;
   void sendToServer(String contentDescription, String userEmail, String stackTraceText, String userText)
       throws IOException, InterruptedException;
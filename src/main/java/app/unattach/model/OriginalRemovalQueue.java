@@ -0,0 +1,147 @@
+package app.unattach.model;
+
+import app.unattach.model.service.GmailService;
+import app.unattach.model.service.GmailServiceException;
+import app.unattach.utils.Logger;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the originals of processed emails in bulk, once their replacements have been inserted. The queue is saved in
+ * the config of the account after every removal, and otherwise at most once per save interval, since every save
+ * rewrites the config file. The originals of an interrupted run are then removed on the next sign-in to that account,
+ * except for the ones queued since the last save, which are left next to their replacements.
+ */
+class OriginalRemovalQueue {
+  private static final Logger logger = Logger.get();
+  // maximum number of message IDs per messages.batchDelete call
+  static final int MAX_DELETE_BATCH_SIZE = 1000;
+  // maximum number of calls per HTTP batch
+  static final int MAX_TRASH_BATCH_SIZE = 100;
+  private static final long DEFAULT_SAVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final Config config;
+  private final GmailService service;
+  private final String emailAddress;
+  private final long saveIntervalNanos;
+  private final List<String> messageIdsToDelete;
+  private final List<String> messageIdsToTrash;
+  private long lastSaveNanos = System.nanoTime();
+
+  OriginalRemovalQueue(Config config, GmailService service, String emailAddress) {
+    this(config, service, emailAddress, DEFAULT_SAVE_INTERVAL_NANOS);
+  }
+
+  OriginalRemovalQueue(Config config, GmailService service, String emailAddress, long saveIntervalNanos) {
+    this.config = config;
+    this.service = service;
+    this.emailAddress = emailAddress;
+    this.saveIntervalNanos = saveIntervalNanos;
+    messageIdsToDelete = new ArrayList<>(config.getOriginalsToDelete(emailAddress));
+    messageIdsToTrash = new ArrayList<>(config.getOriginalsToTrash(emailAddress));
+  }
+
+  /**
+   * Queues the original for removal, removing a full batch right away. If that fails, the batch stays queued for the
+   * next {@link #flush()}, so that the email whose replacement was just inserted isn't reported as failed.
+   */
+  synchronized void add(String messageId, boolean permanentlyRemove) {
+    List<String> messageIds = getMessageIds(permanentlyRemove);
+    messageIds.add(messageId);
+    if (messageIds.size() >= getMaxBatchSize(permanentlyRemove)) {
+      try {
+        flush(permanentlyRemove);
+      } catch (GmailServiceException e) {
+        logger.error("Failed to remove a batch of original emails. They will be removed once the run finishes.", e);
+      }
+    } else if (System.nanoTime() - lastSaveNanos >= saveIntervalNanos) {
+      save();
+    }
+  }
+
+  /**
+   * Removes all queued originals. Deleting and trashing are independent, so if one fails, the other is still attempted.
+   */
+  synchronized void flush() throws GmailServiceException {
+    GmailServiceException exception = null;
+    for (boolean permanentlyRemove : new boolean[] {true, false}) {
+      try {
+        flush(permanentlyRemove);
+      } catch (GmailServiceException e) {
+        if (exception == null) {
+          exception = e;
+        } else {
+          exception.addSuppressed(e);
+        }
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  private void flush(boolean permanentlyRemove) throws GmailServiceException {
+    List<String> messageIds = getMessageIds(permanentlyRemove);
+    int maxBatchSize = getMaxBatchSize(permanentlyRemove);
+    try {
+      while (!messageIds.isEmpty()) {
+        int batchSize = Math.min(maxBatchSize, messageIds.size());
+        List<String> batch = new ArrayList<>(messageIds.subList(0, batchSize));
+        logger.info("%s %d original emails...", permanentlyRemove ? "Deleting" : "Trashing", batch.size());
+        removeMessages(batch, permanentlyRemove);
+        messageIds.subList(0, batchSize).clear();
+      }
+    } finally {
+      // Also saves the originals still queued when removing fails, so that they are removed later.
+      save();
+    }
+  }
+
+  /**
+   * Removes the messages, leaving out the ones that Gmail rejects, e.g. for no longer existing, so that they don't block
+   * the rest of the queue forever. A rejected batch is split in halves until the rejected messages are singled out.
+   */
+  private void removeMessages(List<String> messageIds, boolean permanentlyRemove) throws GmailServiceException {
+    try {
+      service.removeMessages(messageIds, permanentlyRemove);
+    } catch (GmailServiceException e) {
+      if (!isRejected(e)) {
+        throw e;
+      }
+      if (messageIds.size() == 1) {
+        logger.warn("Gmail rejected the removal of original email %s, so it is left as is: %s", messageIds.get(0),
+            e.getMessage());
+        return;
+      }
+      int half = messageIds.size() / 2;
+      removeMessages(messageIds.subList(0, half), permanentlyRemove);
+      removeMessages(messageIds.subList(half, messageIds.size()), permanentlyRemove);
+    }
+  }
+
+  private static boolean isRejected(GmailServiceException e) {
+    if (!(e.getCause() instanceof GoogleJsonResponseException responseException)) {
+      return false;
+    }
+    int statusCode = responseException.getStatusCode();
+    return statusCode == HttpStatusCodes.STATUS_CODE_BAD_REQUEST || statusCode == HttpStatusCodes.STATUS_CODE_NOT_FOUND;
+  }
+
+  private List<String> getMessageIds(boolean permanentlyRemove) {
+    return permanentlyRemove ? messageIdsToDelete : messageIdsToTrash;
+  }
+
+  private void save() {
+    config.saveOriginalsToDelete(emailAddress, List.copyOf(messageIdsToDelete));
+    config.saveOriginalsToTrash(emailAddress, List.copyOf(messageIdsToTrash));
+    lastSaveNanos = System.nanoTime();
+  }
+
+  private static int getMaxBatchSize(boolean permanentlyRemove) {
+    return permanentlyRemove ? MAX_DELETE_BATCH_SIZE : MAX_TRASH_BATCH_SIZE;
+  }
+}
@@ -0,0 +1,160 @@
+package app.unattach.model;
+
+import app.unattach.controller.LongTask;
+import app.unattach.controller.LongTaskException;
+import app.unattach.utils.Logger;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.*;
+
+interface EmailProcessorFunctor {
+  ProcessEmailResult processEmail(Email email) throws Exception;
+}
+
+/**
+ * Processes several emails at once on a bounded pool of workers. Each step returns the result of one email, in order of
+ * completion. The Gmail quota is respected by the service, which paces every call made by the workers.
+ *
+ * Once the last email is done, the run is finished, e.g. to apply changes that were batched across emails.
+ */
+public class ProcessEmailsTask implements LongTask<ProcessEmailsTask.Result> {
+  private static final Logger logger = Logger.get();
+  static final int DEFAULT_NUMBER_OF_WORKERS = 4;
+
+  interface RunFinisher {
+    void finish() throws Exception;
+  }
+
+  /**
+   * The pauses of the workers' calls until Gmail's daily limits reset.
+   */
+  interface Pauses {
+    Pauses NONE = new Pauses() {
+      @Override
+      public Instant getPausedUntil() {
+        return null;
+      }
+
+      @Override
+      public void cancel() {}
+    };
+
+    Instant getPausedUntil();
+    void cancel();
+  }
+
+  public static record Result(Email email, ProcessEmailResult processEmailResult, LongTaskException exception) {}
+
+  private final List<Email> emails;
+  private final EmailProcessorFunctor processEmailFunction;
+  private final RunFinisher runFinisher;
+  private final Pauses pauses;
+  private final int numberOfWorkers;
+  private final CompletionService<Result> completionService;
+  private int nextEmailIndex;
+  private int emailsInFlight;
+  private volatile boolean stopped;
+  private boolean finished;
+
+  ProcessEmailsTask(List<Email> emails, EmailProcessorFunctor processEmailFunction, RunFinisher runFinisher,
+                    Pauses pauses, int numberOfWorkers) {
+    this.emails = emails;
+    this.processEmailFunction = processEmailFunction;
+    this.runFinisher = runFinisher;
+    this.pauses = pauses;
+    this.numberOfWorkers = numberOfWorkers;
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(numberOfWorkers, numberOfWorkers, 10, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), runnable -> {
+      Thread thread = new Thread(runnable, "process-email-worker");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Idle workers exit, so that an abandoned task doesn't keep threads around.
+    executor.allowCoreThreadTimeOut(true);
+    completionService = new ExecutorCompletionService<>(executor);
+  }
+
+  @Override
+  public int getNumberOfSteps() {
+    return emails.size();
+  }
+
+  @Override
+  public boolean hasMoreSteps() {
+    return emailsInFlight > 0 || (!stopped && nextEmailIndex < emails.size());
+  }
+
+  /**
+   * Stops taking on new emails. Emails that are already being processed are finished, and their results are still
+   * returned by the remaining steps. Emails paused until Gmail's daily limits reset fail instead of waiting.
+   */
+  public void stop() {
+    stopped = true;
+    pauses.cancel();
+  }
+
+  /**
+   * @return When the workers paused until Gmail's daily limits reset will resume, or null if none are paused.
+   */
+  public Instant getPausedUntil() {
+    return pauses.getPausedUntil();
+  }
+
+  /**
+   * @return The result of the next email to finish, or null if the task was stopped with no emails in flight.
+   */
+  @Override
+  public Result takeStep() throws LongTaskException {
+    try {
+      submitEmails();
+      if (emailsInFlight == 0) {
+        finishRun();
+        return null;
+      }
+      Result result = completionService.take().get();
+      --emailsInFlight;
+      if (!hasMoreSteps()) {
+        finishRun();
+      }
+      return result;
+    } catch (InterruptedException | ExecutionException e) {
+      throw new LongTaskException(e);
+    }
+  }
+
+  private void finishRun() {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    try {
+      runFinisher.finish();
+    } catch (Exception e) {
+      // The emails themselves were already processed, so their results are still reported.
+      logger.error("Failed to finish processing the emails.", e);
+    }
+  }
+
+  private void submitEmails() {
+    while (!stopped && emailsInFlight < numberOfWorkers && nextEmailIndex < emails.size()) {
+      Email email = emails.get(nextEmailIndex++);
+      completionService.submit(() -> processEmail(email));
+      ++emailsInFlight;
+    }
+  }
+
+  private Result processEmail(Email email) {
+    if (email.getStatus() != EmailStatus.TO_PROCESS) {
+      return new Result(email, null, null);
+    }
+    logger.info("Processing email with subject '%s'...", email.getSubject());
+    try {
+      ProcessEmailResult processEmailResult = processEmailFunction.processEmail(email);
+      email.setStatus(EmailStatus.PROCESSED);
+      return new Result(email, processEmailResult, null);
+    } catch (Throwable t) {
+      return new Result(email, null, new LongTaskException(t));
+    }
+  }
+}
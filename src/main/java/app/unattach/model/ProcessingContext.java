@@ -0,0 +1,79 @@
+package app.unattach.model;
+
+import javax.mail.Session;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static app.unattach.model.GmailLabel.NO_LABEL;
+
+/**
+ * What all emails processed with the same settings have in common, built once per run and shared by the workers that
+ * process them. It is immutable, and so thread-safe.
+ */
+class ProcessingContext {
+  private final ProcessSettings processSettings;
+  private final Set<String> unattachLabelIds;
+  private final FilenameFactory filenameFactory;
+  private final Session session;
+  // Looked up in the background, since it can take a while, and only if the emails will refer to it.
+  private final CompletableFuture<String> hostname;
+
+  private ProcessingContext(ProcessSettings processSettings) {
+    this.processSettings = processSettings;
+    unattachLabelIds = Set.copyOf(getUnattachLabelIds(processSettings.processOption()));
+    filenameFactory = new FilenameFactory(processSettings.filenameSchema(), unattachLabelIds);
+    session = Session.getInstance(new Properties());
+    hostname = processSettings.processOption().shouldRemove() && processSettings.addMetadata() ?
+        CompletableFuture.supplyAsync(ProcessingContext::lookUpHostname) : CompletableFuture.completedFuture(null);
+  }
+
+  static ProcessingContext of(ProcessSettings processSettings) {
+    return new ProcessingContext(processSettings);
+  }
+
+  private static Set<String> getUnattachLabelIds(ProcessOption processOption) {
+    Set<String> unattachLabelIds = new HashSet<>();
+    if (!NO_LABEL.id().equals(processOption.downloadedLabelId())) {
+      unattachLabelIds.add(processOption.downloadedLabelId());
+    }
+    if (!NO_LABEL.id().equals(processOption.removedLabelId())) {
+      unattachLabelIds.add(processOption.removedLabelId());
+    }
+    return unattachLabelIds;
+  }
+
+  private static String lookUpHostname() {
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      return "(unknown)";
+    }
+  }
+
+  ProcessSettings getProcessSettings() {
+    return processSettings;
+  }
+
+  Set<String> getUnattachLabelIds() {
+    return unattachLabelIds;
+  }
+
+  FilenameFactory getFilenameFactory() {
+    return filenameFactory;
+  }
+
+  Session getSession() {
+    return session;
+  }
+
+  /**
+   * @return The name of this host, waiting for it to be looked up if need be.
+   */
+  String getHostname() {
+    return hostname.join();
+  }
+}
@@ -0,0 +1,46 @@
+package app.unattach.model;
+
+import com.google.api.services.gmail.model.MessagePart;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the emails found by a search. Metadata batches complete concurrently and in any order, so the emails are
+ * kept by ID, which also makes an email reported twice by a retried batch harmless, and listed in search order.
+ */
+class SearchResults {
+  private final MessageIdStream emailIds;
+  private final Map<String, Email> emailIdToEmail = new ConcurrentHashMap<>();
+  private final Map<String, MessagePart> emailIdToStructure = new ConcurrentHashMap<>();
+
+  SearchResults(MessageIdStream emailIds) {
+    this.emailIds = emailIds;
+  }
+
+  /**
+   * @param structure The MIME structure of the email, if known.
+   */
+  void add(Email email, MessagePart structure) {
+    emailIdToEmail.put(email.getGmailId(), email);
+    if (structure != null) {
+      emailIdToStructure.put(email.getGmailId(), structure);
+    }
+  }
+
+  /**
+   * @return The MIME structure of the email, or null if unknown.
+   */
+  MessagePart getStructure(String emailId) {
+    return emailIdToStructure.get(emailId);
+  }
+
+  List<Email> toList() {
+    List<Email> emails = new ArrayList<>(emailIdToEmail.values());
+    emails.sort(Comparator.comparingInt(email -> emailIds.getPosition(email.getGmailId())));
+    return emails;
+  }
+}
@@ -0,0 +1,34 @@
+package app.unattach.model.service;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An in-memory quota ledger.
+ */
+public class BaseQuotaLedger implements QuotaLedger {
+  protected static record Key(String account, LocalDate day) {}
+
+  protected final Map<Key, DailyUsage> keyToUsage = new HashMap<>();
+
+  @Override
+  public synchronized void save() {}
+
+  @Override
+  public synchronized DailyUsage getUsage(String account, LocalDate day) {
+    return keyToUsage.getOrDefault(new Key(account, day), DailyUsage.NONE);
+  }
+
+  @Override
+  public synchronized void add(String account, LocalDate day, DailyUsage usage) {
+    Objects.requireNonNull(account);
+    keyToUsage.merge(new Key(account, day), usage, DailyUsage::plus);
+  }
+
+  @Override
+  public synchronized void removeBefore(LocalDate day) {
+    keyToUsage.keySet().removeIf(key -> key.day().isBefore(day));
+  }
+}
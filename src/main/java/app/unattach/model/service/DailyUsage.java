@@ -0,0 +1,21 @@
+package app.unattach.model.service;
+
+/**
+ * Usage of the Gmail API by one account within one day, or a limit on it.
+ */
+public record DailyUsage(long units, long downloadedBytes, long uploadedBytes) {
+  public static final DailyUsage NONE = new DailyUsage(0, 0, 0);
+
+  public DailyUsage plus(DailyUsage other) {
+    return new DailyUsage(units + other.units, downloadedBytes + other.downloadedBytes,
+        uploadedBytes + other.uploadedBytes);
+  }
+
+  /**
+   * @return Whether adding the given usage to this one stays within the given limits.
+   */
+  public boolean allows(DailyUsage other, DailyUsage limits) {
+    return other.units <= limits.units - units && other.downloadedBytes <= limits.downloadedBytes - downloadedBytes &&
+        other.uploadedBytes <= limits.uploadedBytes - uploadedBytes;
+  }
+}
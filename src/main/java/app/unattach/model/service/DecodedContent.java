@@ -0,0 +1,98 @@
+package app.unattach.model.service;
+
+import com.fasterxml.jackson.core.*;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+
+import javax.mail.util.SharedByteArrayInputStream;
+import javax.mail.util.SharedFileInputStream;
+import java.io.*;
+import java.nio.file.Files;
+
+import static org.apache.commons.codec.binary.Base64.decodeBase64;
+
+/**
+ * Content that Gmail sends base64-encoded, such as an email or an attachment, once decoded. Small content is kept in
+ * memory, while larger content is spilled to a temporary file, which is removed once the content is closed.
+ */
+public class DecodedContent implements Closeable {
+  // content above this size is kept in a temporary file
+  static final int MAX_IN_MEMORY_SIZE = 1024 * 1024;
+  private static final Base64Variant BASE64_URL_WITH_PADDING = new Base64Variant("BASE64-URL-WITH-PADDING",
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_", true, '=', Integer.MAX_VALUE);
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private final DeferredFileOutputStream content =
+      new DeferredFileOutputStream(MAX_IN_MEMORY_SIZE, "unattach-", ".tmp", null);
+
+  private DecodedContent() {}
+
+  /**
+   * Reads a JSON object, decoding the given field as it arrives.
+   *
+   * @param otherFields Receives the other fields of the object, unless null.
+   */
+  static DecodedContent read(InputStream json, String base64FieldName, Writer otherFields) throws IOException {
+    DecodedContent decodedContent = new DecodedContent();
+    try (JsonParser parser = JSON_FACTORY.createParser(json);
+         JsonGenerator generator = JSON_FACTORY.createGenerator(otherFields == null ? Writer.nullWriter() : otherFields);
+         OutputStream content = decodedContent.content) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException(parser, "Expected an object.");
+      }
+      generator.writeStartObject();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String fieldName = parser.getCurrentName();
+        parser.nextToken();
+        if (fieldName.equals(base64FieldName)) {
+          try {
+            parser.readBinaryValue(BASE64_URL_WITH_PADDING, content);
+          } catch (IllegalArgumentException e) {
+            // Jackson reports invalid base64, e.g. missing padding, unchecked, so it is turned into a parse failure.
+            throw new JsonParseException(parser, e.getMessage(), e);
+          }
+        } else {
+          generator.writeFieldName(fieldName);
+          generator.copyCurrentStructure(parser);
+        }
+      }
+      generator.writeEndObject();
+      return decodedContent;
+    } catch (IOException | RuntimeException e) {
+      decodedContent.close();
+      throw e;
+    }
+  }
+
+  static DecodedContent of(String base64) throws IOException {
+    DecodedContent decodedContent = new DecodedContent();
+    try (OutputStream content = decodedContent.content) {
+      content.write(decodeBase64(base64));
+    }
+    return decodedContent;
+  }
+
+  public long getSize() {
+    return content.getByteCount();
+  }
+
+  public InputStream getInputStream() throws IOException {
+    return content.isInMemory() ? new ByteArrayInputStream(content.getData()) :
+        new BufferedInputStream(new FileInputStream(content.getFile()));
+  }
+
+  /**
+   * @return A stream from which JavaMail parses body parts as views of the content, rather than copies of it. The
+   *         stream must be closed before the content is.
+   */
+  InputStream getSharedInputStream() throws IOException {
+    return content.isInMemory() ? new SharedByteArrayInputStream(content.getData()) :
+        new SharedFileInputStream(content.getFile());
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (content.getFile() != null) {
+      Files.deleteIfExists(content.getFile().toPath());
+    }
+  }
+}
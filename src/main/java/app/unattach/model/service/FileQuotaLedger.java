@@ -0,0 +1,81 @@
+package app.unattach.model.service;
+
+import app.unattach.model.Constants;
+import app.unattach.utils.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * A quota ledger persisted as a text file, with one line per account and day: the day, the quota units, the downloaded
+ * bytes, the uploaded bytes and the account.
+ */
+public class FileQuotaLedger extends BaseQuotaLedger {
+  private static final Logger logger = Logger.get();
+
+  private FileQuotaLedger() {}
+
+  /**
+   * @return The ledger as last saved, or an empty one if there is none or it can't be read.
+   */
+  public static FileQuotaLedger load() {
+    FileQuotaLedger ledger = new FileQuotaLedger();
+    ledger.loadFile();
+    return ledger;
+  }
+
+  private synchronized void loadFile() {
+    File ledgerFile = getLedgerPath().toFile();
+    if (!ledgerFile.exists()) {
+      return;
+    }
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(ledgerFile),
+        StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(" ", 5);
+        DailyUsage usage = new DailyUsage(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+            Long.parseLong(fields[3]));
+        add(fields[4], LocalDate.parse(fields[0]), usage);
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.error("Failed to load the quota ledger, so starting with an empty one.", e);
+      keyToUsage.clear();
+    }
+  }
+
+  @Override
+  public synchronized void save() {
+    Path ledgerPath = getLedgerPath();
+    Path tempPath = ledgerPath.resolveSibling(ledgerPath.getFileName() + ".tmp");
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempPath.toFile()),
+        StandardCharsets.UTF_8))) {
+      for (Map.Entry<Key, DailyUsage> entry : keyToUsage.entrySet()) {
+        Key key = entry.getKey();
+        DailyUsage usage = entry.getValue();
+        writer.write(key.day() + " " + usage.units() + " " + usage.downloadedBytes() + " " + usage.uploadedBytes() +
+            " " + key.account() + "\n");
+      }
+    } catch (IOException e) {
+      logger.error("Failed to save the quota ledger.", e);
+      return;
+    }
+    try {
+      // Replaced in one go, so that an interrupted save doesn't corrupt the ledger.
+      Files.move(tempPath, ledgerPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      logger.error("Failed to save the quota ledger.", e);
+    }
+  }
+
+  private static Path getLedgerPath() {
+    String userHome = System.getProperty("user.home");
+    return Paths.get(userHome, "." + Constants.PRODUCT_NAME.toLowerCase() + "-quota-ledger.txt");
+  }
+}
@@ -3,33 +3,65 @@ package app.unattach.model.service;
 import app.unattach.model.Constants;
 import app.unattach.model.TestStore;
 import app.unattach.utils.Logger;
-import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.http.AbstractInputStreamContent;
 import com.google.api.services.gmail.model.Label;
 import com.google.api.services.gmail.model.ListLabelsResponse;
 import com.google.api.services.gmail.model.Message;
 import com.google.api.services.gmail.model.MessagePartHeader;
 
-import javax.mail.MessagingException;
-import javax.mail.Session;
-import javax.mail.internet.MimeMessage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Instant;
 import java.util.*;
 
-import static org.apache.commons.codec.binary.Base64.decodeBase64;
+import static org.apache.commons.codec.binary.Base64.encodeBase64URLSafeString;
 
 public interface GmailService {
-  void addLabel(String messageIds, String labelId) throws GmailServiceException;
-  void batchGetMetadata(List<String> messageIds, JsonBatchCallback<Message> callback) throws GmailServiceException;
+  void addLabel(List<String> messageIds, String labelId) throws GmailServiceException;
+  void batchGetMetadata(List<String> messageIds, MetadataCallback callback) throws GmailServiceException;
   Label createLabel(Label labelIn) throws GmailServiceException;
-  void removeMessage(String messageId, boolean permanentlyRemove) throws GmailServiceException;
+  void removeMessages(List<String> messageIds, boolean permanentlyRemove) throws GmailServiceException;
   String getEmailAddress() throws GmailServiceException;
+  String getHistoryId() throws GmailServiceException;
   SortedMap<String, String> getIdToLabel() throws GmailServiceException;
   Message getUniqueIdAndHeaders(String messageId) throws GmailServiceException;
-  Message getRawMessage(String messageId) throws GmailServiceException;
-  Message insertMessage(Message message) throws GmailServiceException;
-  List<Message> search(String query) throws GmailServiceException;
+  /**
+   * @return The email's labels and MIME structure, with the headers, filenames and attachment IDs of its parts, but
+   *         without their bodies. Parts nested too deeply are left out.
+   */
+  Message getMessageStructure(String messageId) throws GmailServiceException;
+  /**
+   * @return The body of the attachment, which the caller is to close once done with it.
+   */
+  DecodedContent getAttachment(String messageId, String attachmentId) throws GmailServiceException;
+  /**
+   * @return The email, which the caller is to close once done with it.
+   */
+  RawMessage getRawMessage(String messageId) throws GmailServiceException;
+  /**
+   * @param message The labels and thread of the email to insert.
+   * @param mimeContent The email itself, in the message/rfc822 format.
+   */
+  Message insertMessage(Message message, AbstractInputStreamContent mimeContent) throws GmailServiceException;
+  /**
+   * @return The IDs of messages changed in the given ways since the given history ID, or null if the ID is too old to
+   *         list history from.
+   */
+  HistoryPage listHistory(String startHistoryId, Set<HistoryType> historyTypes, String pageToken)
+      throws GmailServiceException;
+  SearchPage search(String query, String pageToken) throws GmailServiceException;
+  /**
+   * Logs statistics about the calls made since the end of the previous run, e.g. how many had to be retried.
+   */
+  void logRunStatistics();
+  /**
+   * @return When the calls paused until Gmail's daily limits reset will resume, or null if no calls are paused.
+   */
+  Instant getPausedUntil();
+  /**
+   * Ends the pauses until Gmail's daily limits reset that are under way, failing their calls.
+   */
+  void cancelPauses();
 
   static Map<String, String> getHeaderMap(Message message) {
     List<MessagePartHeader> headers = message.getPayload().getHeaders();
@@ -48,18 +80,6 @@ public interface GmailService {
     return labelToId;
   }
 
-  static MimeMessage getMimeMessage(Message message) throws MessagingException, IOException {
-    String rawBefore = message.getRaw();
-    if (rawBefore == null) {
-      throw new IOException("Unable to extract the contents of the email.");
-    }
-    byte[] emailBytes = decodeBase64(rawBefore);
-    try (InputStream is = new ByteArrayInputStream(emailBytes)) {
-      Session session = Session.getInstance(new Properties());
-      return new MimeMessage(session, is);
-    }
-  }
-
   static void trackInDebugMode(Logger logger, Message message) {
     if (Constants.DEBUG_MODE) {
       try {
@@ -74,6 +94,16 @@ public interface GmailService {
     }
   }
 
+  static void trackInDebugMode(Logger logger, RawMessage rawMessage) {
+    if (Constants.DEBUG_MODE) {
+      try (InputStream is = rawMessage.getInputStream()) {
+        trackInDebugMode(logger, rawMessage.getMetadata().clone().setRaw(encodeBase64URLSafeString(is.readAllBytes())));
+      } catch (IOException e) {
+        logger.error("Failed to track message.", e);
+      }
+    }
+  }
+
   static void trackInDebugMode(Logger logger, ListLabelsResponse response) {
     if (Constants.DEBUG_MODE) {
       try {
@@ -0,0 +1,21 @@
+package app.unattach.model.service;
+
+/**
+ * The types of mailbox changes that history can be listed for.
+ */
+public enum HistoryType {
+  MESSAGE_ADDED("messageAdded"),
+  MESSAGE_DELETED("messageDeleted"),
+  LABEL_ADDED("labelAdded"),
+  LABEL_REMOVED("labelRemoved");
+
+  private final String apiName;
+
+  HistoryType(String apiName) {
+    this.apiName = apiName;
+  }
+
+  public String getApiName() {
+    return apiName;
+  }
+}
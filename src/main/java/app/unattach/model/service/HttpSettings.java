@@ -0,0 +1,20 @@
+package app.unattach.model.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings of the HTTP transport shared by all Gmail calls. Timeouts depend on the type of call: metadata calls are
+ * small and are better retried quickly, while batches and calls that move whole emails need much longer.
+ *
+ * @param maxConnections The maximum number of pooled connections, which bounds the parallel calls.
+ * @param keepAliveMillis How long an idle connection is kept open for reuse.
+ * @param compressResponses Whether responses are requested gzip-compressed.
+ */
+public record HttpSettings(int maxConnections, long keepAliveMillis, boolean compressResponses,
+                           int connectTimeoutMillis, int readTimeoutMillis, int batchReadTimeoutMillis,
+                           int mediaReadTimeoutMillis) {
+  public static final HttpSettings DEFAULT = new HttpSettings(
+      16, TimeUnit.MINUTES.toMillis(1), true,
+      (int) TimeUnit.SECONDS.toMillis(20), (int) TimeUnit.SECONDS.toMillis(60), (int) TimeUnit.MINUTES.toMillis(2),
+      (int) TimeUnit.MINUTES.toMillis(3));
+}
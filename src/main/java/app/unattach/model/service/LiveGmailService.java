@@ -1,152 +1,334 @@
 package app.unattach.model.service;
 
 import app.unattach.utils.Logger;
+import com.fasterxml.jackson.core.JsonParseException;
 import com.google.api.client.googleapis.batch.BatchRequest;
 import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpStatusCodes;
 import com.google.api.services.gmail.Gmail;
 import com.google.api.services.gmail.model.*;
 
 import java.io.IOException;
-import java.lang.Thread;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.time.Instant;
 import java.util.*;
+import java.util.stream.Collectors;
 
-public record LiveGmailService(Gmail gmail) implements GmailService {
+public record LiveGmailService(Gmail gmail, QuotaScheduler quotaScheduler, RetryPolicy retryPolicy,
+                               QuotaBudget quotaBudget)
+    implements GmailService {
   private static final Logger logger = Logger.get();
   private static final String USER = "me";
+  // maximum number of messages per messages.list page
+  private static final long MAX_SEARCH_PAGE_SIZE = 500;
+  // maximum number of history records per history.list page
+  private static final long MAX_HISTORY_PAGE_SIZE = 500;
+  // nesting of MIME parts beyond which the structure of an email is left out
+  private static final int MAX_STRUCTURE_DEPTH = 8;
+  private static final String STRUCTURE_FIELDS = "id,labelIds,payload(" +
+      getPartFields(MAX_STRUCTURE_DEPTH, "partId,mimeType,filename,headers,body/attachmentId,body/size") + ")";
+  // The structure of an email lets processing skip emails with nothing to process without downloading them, and
+  // download their attachments without fetching the structure again.
+  private static final String METADATA_FIELDS = "id,labelIds,internalDate,sizeEstimate,payload(" +
+      getPartFields(MAX_STRUCTURE_DEPTH, "mimeType,filename,headers,body/attachmentId") + ")";
+  // larger emails are uploaded in resumable chunks
+  private static final long MAX_DIRECT_UPLOAD_SIZE = 5 * 1024 * 1024;
+  // See https://developers.google.com/gmail/api/reference/quota.
+  private static final int HISTORY_LIST_UNITS = 2;
+  private static final int ATTACHMENTS_GET_UNITS = 5;
+  private static final int LABELS_CREATE_UNITS = 5;
+  private static final int LABELS_LIST_UNITS = 1;
+  private static final int MESSAGES_BATCH_DELETE_UNITS = 50;
+  private static final int MESSAGES_BATCH_MODIFY_UNITS = 50;
+  private static final int MESSAGES_GET_UNITS = 5;
+  private static final int MESSAGES_INSERT_UNITS = 25;
+  private static final int MESSAGES_LIST_UNITS = 5;
+  private static final int MESSAGES_TRASH_UNITS = 5;
+  private static final int PROFILE_GET_UNITS = 1;
 
   @Override
-  public void addLabel(String messageIds, String labelId) throws GmailServiceException {
+  public void addLabel(List<String> messageIds, String labelId) throws GmailServiceException {
     if (labelId == null) {
       logger.warn("Cannot add a label, because it was not specified.");
       return;
     }
-    try {
-      ModifyMessageRequest modifyMessageRequest = new ModifyMessageRequest();
-      modifyMessageRequest.setAddLabelIds(Collections.singletonList(labelId));
-      // 1 messages.modify == 5 quota units
-      gmail.users().messages().modify(USER, messageIds, modifyMessageRequest).execute();
-    } catch (IOException e) {
-      throw new GmailServiceException(e);
-    }
+    BatchModifyMessagesRequest batchModifyMessagesRequest = new BatchModifyMessagesRequest();
+    batchModifyMessagesRequest.setIds(messageIds);
+    batchModifyMessagesRequest.setAddLabelIds(Collections.singletonList(labelId));
+    execute(MESSAGES_BATCH_MODIFY_UNITS, true,
+        () -> gmail.users().messages().batchModify(USER, batchModifyMessagesRequest).execute());
   }
 
   @Override
-  public void batchGetMetadata(List<String> messageIds, JsonBatchCallback<Message> callback)
-      throws GmailServiceException {
-    try {
+  public void batchGetMetadata(List<String> messageIds, MetadataCallback callback) throws GmailServiceException {
+    execute(messageIds.size() * MESSAGES_GET_UNITS, true, () -> {
+      // A batch is emptied once executed, so every attempt queues the requests anew.
       BatchRequest batch = gmail.batch();
       for (String emailId : messageIds) {
-        // 1 messages.get == 5 quota units
-        String fields = "id,labelIds,internalDate,payload/filename,payload/headers,payload/parts/filename,sizeEstimate";
-        gmail.users().messages().get(USER, emailId).setFields(fields).queue(batch, callback);
+        gmail.users().messages().get(USER, emailId).setFields(METADATA_FIELDS).queue(batch, new JsonBatchCallback<>() {
+          @Override
+          public void onFailure(GoogleJsonError googleJsonError, HttpHeaders httpHeaders) {
+            callback.onFailure(emailId, googleJsonError);
+          }
+
+          @Override
+          public void onSuccess(Message message, HttpHeaders httpHeaders) {
+            callback.onSuccess(message);
+          }
+        });
       }
       batch.execute();
-    } catch (IOException e) {
-      throw new GmailServiceException(e);
-    }
+      return null;
+    });
   }
 
   @Override
   public Label createLabel(Label labelIn) throws GmailServiceException {
-    try {
-      return gmail.users().labels().create(USER, labelIn).execute();
-    } catch (IOException e) {
-      throw new GmailServiceException(e);
-    }
+    return execute(LABELS_CREATE_UNITS, false, () -> gmail.users().labels().create(USER, labelIn).execute());
   }
 
   @Override
-  public void removeMessage(String messageId, boolean permanentlyRemove) throws GmailServiceException {
-    try {
-      if (permanentlyRemove) {
-        // 1 messages.delete == 10 quota units
-        gmail.users().messages().delete(USER, messageId).execute();
-      } else {
-        // 1 messages.trash == 5 quota units
-        gmail.users().messages().trash(USER, messageId).execute();
+  public void removeMessages(List<String> messageIds, boolean permanentlyRemove) throws GmailServiceException {
+    if (permanentlyRemove) {
+      BatchDeleteMessagesRequest batchDeleteMessagesRequest = new BatchDeleteMessagesRequest();
+      batchDeleteMessagesRequest.setIds(messageIds);
+      execute(MESSAGES_BATCH_DELETE_UNITS, true,
+          () -> gmail.users().messages().batchDelete(USER, batchDeleteMessagesRequest).execute());
+    } else {
+      // There is no batch endpoint for trashing, so the calls are combined into a single HTTP batch instead.
+      List<String> failures = new ArrayList<>();
+      JsonBatchCallback<Message> callback = new JsonBatchCallback<>() {
+        @Override
+        public void onFailure(GoogleJsonError googleJsonError, HttpHeaders httpHeaders) {
+          // Messages that no longer exist don't need to be trashed, and invalid ones can't be, so neither fails the batch.
+          if (googleJsonError.getCode() == HttpStatusCodes.STATUS_CODE_BAD_REQUEST) {
+            logger.warn("Gmail rejected trashing a message, so it is left as is: %s", googleJsonError.getMessage());
+          } else if (googleJsonError.getCode() != HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+            failures.add(googleJsonError.getMessage());
+          }
+        }
+
+        @Override
+        public void onSuccess(Message message, HttpHeaders httpHeaders) {}
+      };
+      execute(messageIds.size() * MESSAGES_TRASH_UNITS, true, () -> {
+        failures.clear();
+        BatchRequest batch = gmail.batch();
+        for (String messageId : messageIds) {
+          gmail.users().messages().trash(USER, messageId).queue(batch, callback);
+        }
+        batch.execute();
+        return null;
+      });
+      if (!failures.isEmpty()) {
+        throw new GmailServiceException(
+            new IOException("Failed to trash " + failures.size() + " messages: " + failures));
       }
-    } catch (IOException e) {
-      throw new GmailServiceException(e);
     }
   }
 
   @Override
   public String getEmailAddress() throws GmailServiceException {
-    try {
-      // unknown quota units
-      Profile profile = gmail.users().getProfile(USER).setFields("emailAddress").execute();
-      return profile.getEmailAddress();
-    } catch (IOException e) {
-      throw new GmailServiceException(e);
-    }
+    Profile profile = execute(PROFILE_GET_UNITS, true,
+        () -> gmail.users().getProfile(USER).setFields("emailAddress").execute());
+    quotaBudget.setAccount(profile.getEmailAddress());
+    return profile.getEmailAddress();
+  }
+
+  @Override
+  public String getHistoryId() throws GmailServiceException {
+    Profile profile = execute(PROFILE_GET_UNITS, true,
+        () -> gmail.users().getProfile(USER).setFields("historyId").execute());
+    return profile.getHistoryId().toString();
   }
 
   @Override
   public SortedMap<String, String> getIdToLabel() throws GmailServiceException {
+    ListLabelsResponse response = execute(LABELS_LIST_UNITS, true,
+        () -> gmail.users().labels().list(USER).setFields("labels/id,labels/name").execute());
+    GmailService.trackInDebugMode(logger, response);
+    return GmailService.labelsResponseToMap(response);
+  }
+
+  @Override
+  public Message getUniqueIdAndHeaders(String messageId) throws GmailServiceException {
+    return execute(MESSAGES_GET_UNITS, true,
+        () -> gmail.users().messages().get(USER, messageId).setFields("id,payload/headers").execute());
+  }
+
+  @Override
+  public Message getMessageStructure(String messageId) throws GmailServiceException {
+    return execute(MESSAGES_GET_UNITS, true,
+        () -> gmail.users().messages().get(USER, messageId).setFormat("full").setFields(STRUCTURE_FIELDS).execute());
+  }
+
+  private static String getPartFields(int depth, String fields) {
+    return depth == 0 ? fields : fields + ",parts(" + getPartFields(depth - 1, fields) + ")";
+  }
+
+  @Override
+  public DecodedContent getAttachment(String messageId, String attachmentId) throws GmailServiceException {
+    awaitDownload();
+    DecodedContent attachment;
     try {
-      // 1 labels.get == 1 quota unit
-      ListLabelsResponse response = gmail.users().labels().list(USER).setFields("labels/id,labels/name").execute();
-      GmailService.trackInDebugMode(logger, response);
-      return GmailService.labelsResponseToMap(response);
-    } catch (IOException e) {
-      throw new GmailServiceException(e);
+      attachment = execute(ATTACHMENTS_GET_UNITS, true, () -> {
+        try (InputStream is = gmail.users().messages().attachments().get(USER, messageId, attachmentId)
+            .setFields("data").executeAsInputStream()) {
+          return DecodedContent.read(is, "data", null);
+        }
+      });
+    } catch (GmailServiceException e) {
+      if (!(e.getCause() instanceof JsonParseException)) {
+        throw e;
+      }
+      logger.warn("Failed to decode attachment of email %s as it arrived, downloading it again: %s", messageId,
+          e.getCause().getMessage());
+      awaitDownload();
+      attachment = execute(ATTACHMENTS_GET_UNITS, true, () -> DecodedContent.of(
+          gmail.users().messages().attachments().get(USER, messageId, attachmentId).setFields("data").execute()
+              .getData()));
     }
+    quotaBudget.record(new DailyUsage(0, attachment.getSize(), 0));
+    return attachment;
   }
 
   @Override
-  public Message getUniqueIdAndHeaders(String messageId) throws GmailServiceException {
+  public RawMessage getRawMessage(String messageId) throws GmailServiceException {
+    awaitDownload();
+    RawMessage rawMessage;
     try {
-      // 1 messages.get == 5 quota units
-      return gmail.users().messages().get(USER, messageId).setFields("id,payload/headers").execute();
-    } catch (IOException e) {
+      rawMessage = execute(MESSAGES_GET_UNITS, true, () -> {
+        try (InputStream is = gmail.users().messages().get(USER, messageId).setFormat("raw").executeAsInputStream()) {
+          return RawMessage.read(is);
+        }
+      });
+    } catch (GmailServiceException e) {
+      if (!(e.getCause() instanceof JsonParseException)) {
+        throw e;
+      }
+      // The email is only decoded as it arrives if it is padded, as Gmail does, so fall back to decoding it whole.
+      logger.warn("Failed to decode email %s as it arrived, downloading it again: %s", messageId,
+          e.getCause().getMessage());
+      awaitDownload();
+      rawMessage = execute(MESSAGES_GET_UNITS, true,
+          () -> RawMessage.of(gmail.users().messages().get(USER, messageId).setFormat("raw").execute()));
+    }
+    quotaBudget.record(new DailyUsage(0, rawMessage.getSize(), 0));
+    return rawMessage;
+  }
+
+  private void awaitDownload() throws GmailServiceException {
+    try {
+      quotaBudget.awaitDownload();
+    } catch (InterruptedException e) {
       throw new GmailServiceException(e);
     }
   }
 
   @Override
-  public Message getRawMessage(String messageId) throws GmailServiceException {
+  public Message insertMessage(Message message, AbstractInputStreamContent mimeContent) throws GmailServiceException {
+    try {
+      quotaBudget.awaitUpload(mimeContent.getLength());
+    } catch (InterruptedException | IOException e) {
+      throw new GmailServiceException(e);
+    }
+    // An insert that timed out may still have been carried out, so only rejected inserts are retried.
+    Message insertedMessage = execute(MESSAGES_INSERT_UNITS, false, () -> {
+      Gmail.Users.Messages.Insert insert =
+          gmail.users().messages().insert(USER, message, mimeContent).setInternalDateSource("dateHeader");
+      // A resumable upload picks up from the last chunk the server received, if the connection fails midway.
+      insert.getMediaHttpUploader().setDirectUploadEnabled(mimeContent.getLength() <= MAX_DIRECT_UPLOAD_SIZE);
+      return insert.execute();
+    });
     try {
-      // 1 messages.get == 5 quota units
-      // download limit = 2500 MB / day / user
-      return gmail.users().messages().get(USER, messageId).setFormat("raw").execute();
+      quotaBudget.record(new DailyUsage(0, 0, mimeContent.getLength()));
     } catch (IOException e) {
       throw new GmailServiceException(e);
     }
+    return insertedMessage;
   }
 
   @Override
-  public Message insertMessage(Message message) throws GmailServiceException {
+  public HistoryPage listHistory(String startHistoryId, Set<HistoryType> historyTypes, String pageToken)
+      throws GmailServiceException {
+    List<String> apiHistoryTypes = historyTypes.stream().map(HistoryType::getApiName).collect(Collectors.toList());
+    ListHistoryResponse response;
     try {
-      // 1 messages.insert == 25 quota units
-      // upload limit = 500 MB / day / user
-      return gmail.users().messages().insert(USER, message).setInternalDateSource("dateHeader").execute();
-    } catch (IOException e) {
-      throw new GmailServiceException(e);
+      response = execute(HISTORY_LIST_UNITS, true, () -> gmail.users().history().list(USER)
+          .setFields("history(messagesAdded/message/id,messagesDeleted/message/id,labelsAdded/message/id," +
+              "labelsRemoved/message/id),nextPageToken")
+          .setStartHistoryId(new BigInteger(startHistoryId)).setHistoryTypes(apiHistoryTypes)
+          .setMaxResults(MAX_HISTORY_PAGE_SIZE).setPageToken(pageToken).execute());
+    } catch (GmailServiceException e) {
+      // History is only kept for a limited time, after which the start history ID is no longer found.
+      if (e.getCause() instanceof GoogleJsonResponseException responseException &&
+          responseException.getStatusCode() == HttpStatusCodes.STATUS_CODE_NOT_FOUND) {
+        return null;
+      }
+      throw e;
     }
+    // A history record can hold several types of changes, so only the requested ones are picked.
+    Set<String> messageIds = new LinkedHashSet<>();
+    for (History history : Objects.requireNonNullElse(response.getHistory(), List.<History>of())) {
+      if (historyTypes.contains(HistoryType.MESSAGE_ADDED) && history.getMessagesAdded() != null) {
+        history.getMessagesAdded().forEach(change -> messageIds.add(change.getMessage().getId()));
+      }
+      if (historyTypes.contains(HistoryType.MESSAGE_DELETED) && history.getMessagesDeleted() != null) {
+        history.getMessagesDeleted().forEach(change -> messageIds.add(change.getMessage().getId()));
+      }
+      if (historyTypes.contains(HistoryType.LABEL_ADDED) && history.getLabelsAdded() != null) {
+        history.getLabelsAdded().forEach(change -> messageIds.add(change.getMessage().getId()));
+      }
+      if (historyTypes.contains(HistoryType.LABEL_REMOVED) && history.getLabelsRemoved() != null) {
+        history.getLabelsRemoved().forEach(change -> messageIds.add(change.getMessage().getId()));
+      }
+    }
+    return new HistoryPage(new ArrayList<>(messageIds), response.getNextPageToken());
   }
 
   @Override
-  public List<Message> search(String query) throws GmailServiceException {
+  public SearchPage search(String query, String pageToken) throws GmailServiceException {
+    ListMessagesResponse response = execute(MESSAGES_LIST_UNITS, true, () -> gmail.users().messages().list(USER)
+        .setFields("messages/id,nextPageToken,resultSizeEstimate")
+        .setQ(query).setMaxResults(MAX_SEARCH_PAGE_SIZE).setPageToken(pageToken).execute());
+    if (response == null || response.getMessages() == null) {
+      return new SearchPage(List.of(), null, 0);
+    }
+    List<String> messageIds = response.getMessages().stream().map(Message::getId).collect(Collectors.toList());
+    long resultSizeEstimate = response.getResultSizeEstimate() == null ? 0 : response.getResultSizeEstimate();
+    return new SearchPage(messageIds, response.getNextPageToken(), resultSizeEstimate);
+  }
+
+  @Override
+  public void logRunStatistics() {
+    retryPolicy.logAndResetStatistics();
+  }
+
+  @Override
+  public Instant getPausedUntil() {
+    return quotaBudget.getPausedUntil();
+  }
+
+  @Override
+  public void cancelPauses() {
+    quotaBudget.cancelPauses();
+  }
+
+  /**
+   * Makes a call with retries, acquiring its quota units before every attempt, since failed calls count too.
+   */
+  private <T> T execute(int units, boolean idempotent, RetryPolicy.Call<T> call) throws GmailServiceException {
     try {
-      List<Message> messages = new ArrayList<>();
-      String pageToken = null;
-      do {
-        // 1 messages.list == 5 quota units
-        Gmail.Users.Messages.List request = gmail.users().messages().list(USER).setFields("messages/id,nextPageToken")
-            .setQ(query).setMaxResults(100000L).setPageToken(pageToken);
-        ListMessagesResponse response = request.execute();
-        if (response == null) {
-          break;
-        }
-        List<Message> responseMessages = response.getMessages();
-        if (responseMessages == null) {
-          break;
-        }
-        messages.addAll(responseMessages);
-        pageToken = response.getNextPageToken();
-        Thread.sleep(25);
-      } while (pageToken != null);
-      return messages;
+      return retryPolicy.execute(idempotent, () -> {
+        quotaScheduler.acquire(units);
+        quotaBudget.record(new DailyUsage(units, 0, 0));
+        return call.execute();
+      });
     } catch (IOException | InterruptedException e) {
       throw new GmailServiceException(e);
     }
@@ -4,22 +4,35 @@ import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.extensions.java6.auth.oauth2.AuthorizationCodeInstalledApp;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.googleapis.GoogleUtils;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpBackOffIOExceptionHandler;
+import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.ExponentialBackOff;
+import com.google.api.client.util.SslUtils;
 import com.google.api.client.util.store.FileDataStoreFactory;
 import com.google.api.services.gmail.Gmail;
 import com.google.api.services.gmail.GmailScopes;
 import org.apache.commons.io.FileUtils;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 
+import javax.net.ssl.SSLContext;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.security.GeneralSecurityException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class LiveGmailServiceManager implements GmailServiceManager {
   private static final String GOOGLE_APPLICATION_NAME = "Unattach";
@@ -27,19 +40,32 @@ public class LiveGmailServiceManager implements GmailServiceManager {
   private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
   private static final List<String> SCOPES = Collections.singletonList(GmailScopes.MAIL_GOOGLE_COM);
 
+  // Shared across sign-ins, since the quota is per user and not per client instance.
+  private final QuotaScheduler quotaScheduler = new QuotaScheduler();
+  private final RetryPolicy retryPolicy = new RetryPolicy();
+  private final QuotaLedger quotaLedger;
+  private final HttpSettings httpSettings;
   private FileDataStoreFactory dataStoreFactory;
+  // Shared across sign-ins and workers, so that pooled connections and their TLS sessions are reused.
   private HttpTransport httpTransport;
 
+  public LiveGmailServiceManager(HttpSettings httpSettings, QuotaLedger quotaLedger) {
+    this.httpSettings = httpSettings;
+    this.quotaLedger = quotaLedger;
+  }
+
   @Override
   public GmailService signIn() throws GmailServiceManagerException {
     try {
-      httpTransport = GoogleNetHttpTransport.newTrustedTransport();
+      if (httpTransport == null) {
+        httpTransport = createHttpTransport();
+      }
       dataStoreFactory = new FileDataStoreFactory(DATA_STORE_DIR);
       Credential credential = authorize();
-      Gmail gmail = new Gmail.Builder(httpTransport, JSON_FACTORY, setHttpTimeout(credential))
+      Gmail gmail = new Gmail.Builder(httpTransport, JSON_FACTORY, configureRequest(credential))
           .setApplicationName(GOOGLE_APPLICATION_NAME)
           .build();
-      return new LiveGmailService(gmail);
+      return new LiveGmailService(gmail, quotaScheduler, retryPolicy, new QuotaBudget(quotaLedger));
     } catch (GeneralSecurityException | IOException e) {
       throw new GmailServiceManagerException(e);
     }
@@ -47,6 +73,7 @@ public class LiveGmailServiceManager implements GmailServiceManager {
 
   @Override
   public void signOut() throws GmailServiceManagerException {
+    quotaLedger.save();
     try {
       FileUtils.deleteDirectory(DATA_STORE_DIR);
     } catch (IOException e) {
@@ -54,14 +81,78 @@ public class LiveGmailServiceManager implements GmailServiceManager {
     }
   }
 
-  private HttpRequestInitializer setHttpTimeout(final HttpRequestInitializer requestInitializer) {
+  private HttpTransport createHttpTransport() throws GeneralSecurityException, IOException {
+    // Trusts the same certificates as GoogleNetHttpTransport.newTrustedTransport().
+    SSLContext sslContext = SslUtils.getTlsSslContext();
+    SslUtils.initSslContext(sslContext, GoogleUtils.getCertificateTrustStore(), SslUtils.getPkixTrustManagerFactory());
+    long keepAliveMillis = httpSettings.keepAliveMillis();
+    HttpClient httpClient = ApacheHttpTransport.newDefaultHttpClientBuilder()
+        .setSSLSocketFactory(new SSLConnectionSocketFactory(sslContext))
+        .setMaxConnTotal(httpSettings.maxConnections())
+        .setMaxConnPerRoute(httpSettings.maxConnections())
+        .setKeepAliveStrategy((response, context) -> keepAliveMillis)
+        .evictIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS)
+        // Compression is left to the Google client, which requests gzip and decodes it.
+        .disableContentCompression()
+        .build();
+    return new ApacheHttpTransport(httpClient);
+  }
+
+  HttpRequestInitializer configureRequest(final HttpRequestInitializer requestInitializer) {
     return httpRequest -> {
       requestInitializer.initialize(httpRequest);
-      httpRequest.setConnectTimeout(3 * 60000);
-      httpRequest.setReadTimeout(3 * 60000);
+      httpRequest.setConnectTimeout(httpSettings.connectTimeoutMillis());
+      httpRequest.setReadTimeout(getReadTimeoutMillis(httpRequest));
+      if (isResumableUpload(httpRequest.getUrl())) {
+        installBackOffHandlers(httpRequest);
+      }
+      if (!httpSettings.compressResponses()) {
+        // The client copies its own headers, which ask for gzip by default, onto the request after initializing it, so
+        // the header is only cleared right before the request is sent, after the credential's interceptor.
+        HttpExecuteInterceptor interceptor = httpRequest.getInterceptor();
+        httpRequest.setInterceptor(request -> {
+          if (interceptor != null) {
+            interceptor.intercept(request);
+          }
+          request.getHeaders().setAcceptEncoding(null);
+        });
+      }
     };
   }
 
+  // The request starting an upload session, and the ones uploading its chunks to the session URL.
+  private static boolean isResumableUpload(GenericUrl url) {
+    return url != null && ("resumable".equals(url.getFirst("uploadType")) || url.getFirst("upload_id") != null);
+  }
+
+  /**
+   * Lets a resumable upload recover from a failed chunk: the uploader only resumes, by asking the server how much it
+   * received, if the request's handlers say the request should be retried.
+   */
+  private static void installBackOffHandlers(HttpRequest httpRequest) {
+    httpRequest.setIOExceptionHandler(new HttpBackOffIOExceptionHandler(new ExponentialBackOff()));
+    // The credential's handler refreshes the access token once it expires, so it is kept.
+    HttpUnsuccessfulResponseHandler credentialHandler = httpRequest.getUnsuccessfulResponseHandler();
+    HttpUnsuccessfulResponseHandler backOffHandler =
+        new HttpBackOffUnsuccessfulResponseHandler(new ExponentialBackOff());
+    httpRequest.setUnsuccessfulResponseHandler((request, response, supportsRetry) ->
+        (credentialHandler != null && credentialHandler.handleResponse(request, response, supportsRetry)) ||
+            backOffHandler.handleResponse(request, response, supportsRetry));
+  }
+
+  private int getReadTimeoutMillis(HttpRequest httpRequest) {
+    GenericUrl url = httpRequest.getUrl();
+    String path = url == null || url.getRawPath() == null ? "" : url.getRawPath();
+    if (path.startsWith("/upload/") || path.contains("/attachments/") ||
+        (url != null && "raw".equals(url.getFirst("format")))) {
+      return httpSettings.mediaReadTimeoutMillis();
+    } else if (path.startsWith("/batch")) {
+      return httpSettings.batchReadTimeoutMillis();
+    } else {
+      return httpSettings.readTimeoutMillis();
+    }
+  }
+
   private Credential authorize() throws IOException {
     try (InputStreamReader reader = new InputStreamReader(getClass().getResourceAsStream("/credentials.json"))) {
       GoogleClientSecrets clientSecrets = GoogleClientSecrets.load(JSON_FACTORY, reader);
@@ -0,0 +1,12 @@
+package app.unattach.model.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.services.gmail.model.Message;
+
+/**
+ * Receives the result of each message in a metadata batch. A failed message doesn't fail the rest of the batch.
+ */
+public interface MetadataCallback {
+  void onSuccess(Message message);
+  void onFailure(String messageId, GoogleJsonError error);
+}
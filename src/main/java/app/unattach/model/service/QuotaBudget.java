@@ -0,0 +1,146 @@
+package app.unattach.model.service;
+
+import app.unattach.model.Constants;
+import app.unattach.utils.Logger;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters the Gmail usage of the signed-in account in a persistent ledger, against Gmail's daily limits per user, which
+ * reset at midnight Pacific time. A transfer that could exceed a limit waits for the reset, rather than fail along with
+ * every transfer after it.
+ */
+public class QuotaBudget {
+  private static final Logger logger = Logger.get();
+  static final ZoneId GMAIL_TIME_ZONE = ZoneId.of("America/Los_Angeles");
+  // download limit = 2500 MB / day / user, upload limit = 500 MB / day / user, no daily limit on quota units
+  public static final DailyUsage GMAIL_DAILY_LIMITS =
+      new DailyUsage(Long.MAX_VALUE, 2500L * Constants.BYTES_IN_MEGABYTE, 500L * Constants.BYTES_IN_MEGABYTE);
+  // The size of a download isn't known in advance, so room is kept for several of the largest emails at once.
+  static final long DOWNLOAD_HEADROOM_BYTES = 100L * Constants.BYTES_IN_MEGABYTE;
+  private static final long SAVE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final QuotaLedger ledger;
+  private final DailyUsage limits;
+  private final Clock clock;
+  // Only known once the account's profile was fetched, so usage up to then isn't metered.
+  private volatile String account;
+  private LocalDate lastDay;
+  private long lastSaveNanos = System.nanoTime();
+  // Pauses end early once cancelled, which is counted, so that only the pauses already under way end.
+  private long cancellations;
+  private int pausedCalls;
+  private Instant pausedUntil;
+
+  public QuotaBudget(QuotaLedger ledger) {
+    this(ledger, GMAIL_DAILY_LIMITS, Clock.system(GMAIL_TIME_ZONE));
+  }
+
+  QuotaBudget(QuotaLedger ledger, DailyUsage limits, Clock clock) {
+    this.ledger = ledger;
+    this.limits = limits;
+    this.clock = clock;
+  }
+
+  void setAccount(String account) {
+    this.account = account;
+  }
+
+  /**
+   * @return The usage of the signed-in account so far today.
+   */
+  public DailyUsage getUsage() {
+    return account == null ? DailyUsage.NONE : ledger.getUsage(account, getDay());
+  }
+
+  void awaitDownload() throws InterruptedException {
+    await(new DailyUsage(0, DOWNLOAD_HEADROOM_BYTES, 0));
+  }
+
+  void awaitUpload(long bytes) throws InterruptedException {
+    await(new DailyUsage(0, 0, bytes));
+  }
+
+  synchronized void record(DailyUsage usage) {
+    if (account == null) {
+      return;
+    }
+    LocalDate day = getDay();
+    if (!day.equals(lastDay)) {
+      ledger.removeBefore(day);
+      lastDay = day;
+    }
+    ledger.add(account, day, usage);
+    long now = System.nanoTime();
+    if (now - lastSaveNanos >= SAVE_INTERVAL_NANOS) {
+      ledger.save();
+      lastSaveNanos = now;
+    }
+  }
+
+  /**
+   * @return How long to wait for the given usage to fit within today's limits, or 0 if it already does.
+   */
+  long getPauseMillis(DailyUsage plannedUsage) {
+    if (getUsage().allows(plannedUsage, limits)) {
+      return 0;
+    }
+    ZonedDateTime now = ZonedDateTime.now(clock);
+    ZonedDateTime reset = now.toLocalDate().plusDays(1).atStartOfDay(clock.getZone());
+    return Duration.between(now, reset).toMillis();
+  }
+
+  /**
+   * @return When the calls paused until Gmail's daily limits reset will resume, or null if no calls are paused.
+   */
+  synchronized Instant getPausedUntil() {
+    return pausedUntil;
+  }
+
+  /**
+   * Ends the pauses under way, whose calls then fail with {@link InterruptedException}.
+   */
+  synchronized void cancelPauses() {
+    ++cancellations;
+    notifyAll();
+  }
+
+  private synchronized void await(DailyUsage plannedUsage) throws InterruptedException {
+    long pauseMillis = getPauseMillis(plannedUsage);
+    if (pauseMillis <= 0) {
+      return;
+    }
+    logger.warn("Close to Gmail's daily limits (used today: %s), pausing for %d minutes, until they reset.",
+        getUsage(), TimeUnit.MILLISECONDS.toMinutes(pauseMillis));
+    ledger.save();
+    long cancellationsBefore = cancellations;
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pauseMillis);
+    Instant resumeAt = clock.instant().plusMillis(pauseMillis);
+    pausedUntil = pausedUntil == null || resumeAt.isAfter(pausedUntil) ? resumeAt : pausedUntil;
+    ++pausedCalls;
+    try {
+      // Waiting releases the lock, so that other calls can still record their usage, or pause too.
+      for (long remainingNanos = deadlineNanos - System.nanoTime(); remainingNanos > 0;
+           remainingNanos = deadlineNanos - System.nanoTime()) {
+        if (cancellations != cancellationsBefore) {
+          throw new InterruptedException("The pause until Gmail's daily limits reset was cancelled.");
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+      }
+    } finally {
+      if (--pausedCalls == 0) {
+        pausedUntil = null;
+      }
+    }
+  }
+
+  private LocalDate getDay() {
+    return LocalDate.now(clock);
+  }
+}
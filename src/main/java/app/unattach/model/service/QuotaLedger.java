@@ -0,0 +1,17 @@
+package app.unattach.model.service;
+
+import java.time.LocalDate;
+
+/**
+ * Usage of the Gmail API per account and day, kept across runs, so that daily limits are respected even when a day's
+ * work is spread over several runs.
+ */
+public interface QuotaLedger {
+  DailyUsage getUsage(String account, LocalDate day);
+  void add(String account, LocalDate day, DailyUsage usage);
+  /**
+   * Forgets the usage of days before the given one, which no longer counts towards any limit.
+   */
+  void removeBefore(LocalDate day);
+  void save();
+}
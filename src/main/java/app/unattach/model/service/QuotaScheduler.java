@@ -0,0 +1,55 @@
+package app.unattach.model.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket shared by all Gmail API calls made on behalf of a user. Each call acquires its quota unit cost before
+ * it is made, so the client can run at the per-user quota ceiling instead of sleeping for a fixed time between calls.
+ *
+ * Acquiring more units than are available puts the bucket into debt, which every subsequent caller has to wait out.
+ * This keeps the moving average within the limit even when a single call (e.g. a batch) costs more than the capacity.
+ */
+public class QuotaScheduler {
+  // 250 quota units / user / second
+  public static final int GMAIL_UNITS_PER_SECOND = 250;
+
+  private final double unitsPerSecond;
+  private final double capacity;
+  private double availableUnits;
+  private long lastRefillNanos;
+
+  public QuotaScheduler() {
+    this(GMAIL_UNITS_PER_SECOND);
+  }
+
+  public QuotaScheduler(int unitsPerSecond) {
+    this.unitsPerSecond = unitsPerSecond;
+    capacity = unitsPerSecond;
+    availableUnits = capacity;
+    lastRefillNanos = System.nanoTime();
+  }
+
+  public void acquire(int units) throws InterruptedException {
+    long waitNanos;
+    synchronized (this) {
+      refill();
+      availableUnits -= units;
+      waitNanos = availableUnits >= 0 ? 0 : (long) (-availableUnits / unitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+    }
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  public synchronized double getAvailableUnits() {
+    refill();
+    return availableUnits;
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    availableUnits = Math.min(capacity, availableUnits + elapsedSeconds * unitsPerSecond);
+    lastRefillNanos = now;
+  }
+}
@@ -0,0 +1,87 @@
+package app.unattach.model.service;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.gmail.model.Message;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An email in the message/rfc822 format, with its Gmail metadata.
+ */
+public class RawMessage implements Closeable {
+  private final Message metadata;
+  private final DecodedContent content;
+  private final List<InputStream> sharedInputStreams = new ArrayList<>();
+
+  private RawMessage(Message metadata, DecodedContent content) {
+    this.metadata = metadata;
+    this.content = content;
+  }
+
+  /**
+   * Reads a message in the raw format from its JSON representation, decoding the email as it arrives.
+   */
+  static RawMessage read(InputStream json) throws IOException {
+    StringWriter metadataJson = new StringWriter();
+    DecodedContent content = DecodedContent.read(json, "raw", metadataJson);
+    try {
+      Message metadata = JacksonFactory.getDefaultInstance().fromString(metadataJson.toString(), Message.class);
+      return new RawMessage(metadata, content);
+    } catch (IOException | RuntimeException e) {
+      content.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Takes the email out of a message in the raw format.
+   */
+  public static RawMessage of(Message message) throws IOException {
+    String raw = message.getRaw();
+    if (raw == null) {
+      throw new IOException("Unable to extract the contents of the email.");
+    }
+    return new RawMessage(message.clone().setRaw(null), DecodedContent.of(raw));
+  }
+
+  /**
+   * @return The message without its raw content.
+   */
+  public Message getMetadata() {
+    return metadata;
+  }
+
+  public long getSize() {
+    return content.getSize();
+  }
+
+  public InputStream getInputStream() throws IOException {
+    return content.getInputStream();
+  }
+
+  /**
+   * @return The email, whose body parts are read from the content only when needed, so the email must be used before
+   *         this raw message is closed.
+   */
+  public synchronized MimeMessage getMimeMessage(Session session) throws IOException, MessagingException {
+    InputStream is = content.getSharedInputStream();
+    sharedInputStreams.add(is);
+    return new MimeMessage(session, is);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      for (InputStream is : sharedInputStreams) {
+        is.close();
+      }
+    } finally {
+      content.close();
+    }
+  }
+}
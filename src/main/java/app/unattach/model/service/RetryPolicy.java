@@ -0,0 +1,195 @@
+package app.unattach.model.service;
+
+import app.unattach.utils.Logger;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpStatusCodes;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retries Gmail API calls that failed for transient reasons, i.e. rate limiting, server errors and timeouts, using
+ * capped exponential backoff with jitter. If the server says how long to wait with Retry-After, that is honoured.
+ *
+ * See https://developers.google.com/gmail/api/guides/handle-errors.
+ */
+public class RetryPolicy {
+  private static final Logger logger = Logger.get();
+  private static final int STATUS_CODE_TOO_MANY_REQUESTS = 429;
+  private static final Set<String> RATE_LIMIT_REASONS = Set.of("rateLimitExceeded", "userRateLimitExceeded");
+
+  public static final int DEFAULT_MAX_ATTEMPTS = 6;
+  public static final long DEFAULT_INITIAL_DELAY_MILLIS = 1000;
+  public static final long DEFAULT_MAX_DELAY_MILLIS = 32000;
+
+  public interface Call<T> {
+    T execute() throws IOException, InterruptedException;
+  }
+
+  enum ErrorKind { RATE_LIMIT, SERVER_ERROR, TIMEOUT, PERMANENT }
+
+  private final int maxAttempts;
+  private final long initialDelayMillis;
+  private final long maxDelayMillis;
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong rateLimitRetries = new AtomicLong();
+  private final AtomicLong failuresAfterRetries = new AtomicLong();
+
+  public RetryPolicy() {
+    this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+  }
+
+  public RetryPolicy(int maxAttempts, long initialDelayMillis, long maxDelayMillis) {
+    this.maxAttempts = maxAttempts;
+    this.initialDelayMillis = initialDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+  }
+
+  /**
+   * Makes the call, retrying it while it fails with a transient error and attempts remain.
+   *
+   * @param idempotent Whether the call can safely be repeated after a timeout or a server error, i.e. when it is unknown
+   *                   whether the server already carried it out. Rate-limited calls are always retried, since the
+   *                   server rejects them before carrying them out.
+   */
+  public <T> T execute(boolean idempotent, Call<T> call) throws IOException, InterruptedException {
+    for (int attempt = 1; ; ++attempt) {
+      try {
+        return call.execute();
+      } catch (IOException e) {
+        ErrorKind errorKind = classify(e);
+        boolean retryable = errorKind == ErrorKind.RATE_LIMIT || (idempotent && errorKind != ErrorKind.PERMANENT);
+        if (!retryable) {
+          throw e;
+        }
+        if (attempt >= maxAttempts) {
+          failuresAfterRetries.incrementAndGet();
+          throw e;
+        }
+        long delayMillis = getDelayMillis(attempt, e);
+        retries.incrementAndGet();
+        if (errorKind == ErrorKind.RATE_LIMIT) {
+          rateLimitRetries.incrementAndGet();
+        }
+        logger.warn("Gmail API call failed (%s, attempt %d of %d), retrying in %d ms: %s",
+            errorKind, attempt, maxAttempts, delayMillis, e.getMessage());
+        TimeUnit.MILLISECONDS.sleep(delayMillis);
+      }
+    }
+  }
+
+  static ErrorKind classify(IOException e) {
+    if (e instanceof SocketTimeoutException) {
+      return ErrorKind.TIMEOUT;
+    }
+    if (!(e instanceof HttpResponseException)) {
+      return ErrorKind.PERMANENT;
+    }
+    int statusCode = ((HttpResponseException) e).getStatusCode();
+    GoogleJsonError details = e instanceof GoogleJsonResponseException ?
+        ((GoogleJsonResponseException) e).getDetails() : null;
+    return classify(statusCode, details);
+  }
+
+  /**
+   * @return Whether a single failed request within a batch is worth retrying later.
+   */
+  public static boolean isTransient(GoogleJsonError error) {
+    return classify(error.getCode(), error) != ErrorKind.PERMANENT;
+  }
+
+  /**
+   * @return Whether a single failed request within a batch was rejected for exceeding the rate limit.
+   */
+  public static boolean isRateLimit(GoogleJsonError error) {
+    return classify(error.getCode(), error) == ErrorKind.RATE_LIMIT;
+  }
+
+  private static ErrorKind classify(int statusCode, GoogleJsonError details) {
+    if (statusCode == STATUS_CODE_TOO_MANY_REQUESTS) {
+      return ErrorKind.RATE_LIMIT;
+    }
+    if (statusCode >= HttpStatusCodes.STATUS_CODE_SERVER_ERROR) {
+      return ErrorKind.SERVER_ERROR;
+    }
+    if (statusCode == HttpStatusCodes.STATUS_CODE_FORBIDDEN && details != null && details.getErrors() != null &&
+        details.getErrors().stream().anyMatch(error -> RATE_LIMIT_REASONS.contains(error.getReason()))) {
+      return ErrorKind.RATE_LIMIT;
+    }
+    return ErrorKind.PERMANENT;
+  }
+
+  long getDelayMillis(int attempt, IOException e) {
+    Long retryAfterMillis = getRetryAfterMillis(e);
+    if (retryAfterMillis != null) {
+      // The server knows best, but its wait is still capped, so that a bogus value can't stall the run.
+      return Math.min(retryAfterMillis, maxDelayMillis);
+    }
+    return getBackoffMillis(attempt);
+  }
+
+  /**
+   * @return How long to wait before the next attempt, after the given number of failed attempts.
+   */
+  public long getBackoffMillis(int attempt) {
+    long backoffMillis = Math.min(maxDelayMillis, initialDelayMillis << Math.min(attempt - 1, 30));
+    // Equal jitter: at least half of the backoff, so that concurrent callers spread out without retrying too early.
+    return backoffMillis / 2 + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1);
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  private static Long getRetryAfterMillis(IOException e) {
+    if (!(e instanceof HttpResponseException)) {
+      return null;
+    }
+    String retryAfter = ((HttpResponseException) e).getHeaders().getRetryAfter();
+    if (retryAfter == null || retryAfter.isBlank()) {
+      return null;
+    }
+    try {
+      return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+    } catch (NumberFormatException ignored) {
+      // Retry-After can also be an HTTP date.
+    }
+    try {
+      Instant retryAt = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+      return Math.max(0, Duration.between(Instant.now(), retryAt).toMillis());
+    } catch (DateTimeParseException ignored) {
+      return null;
+    }
+  }
+
+  /**
+   * Logs how many calls were retried, and how many failed despite retries, since the statistics were last logged.
+   */
+  public void logAndResetStatistics() {
+    logger.info("Gmail API calls since the last run: %d retries, %d of them rate-limited, %d failures after retries.",
+        retries.getAndSet(0), rateLimitRetries.getAndSet(0), failuresAfterRetries.getAndSet(0));
+  }
+
+  public long getRetries() {
+    return retries.get();
+  }
+
+  public long getRateLimitRetries() {
+    return rateLimitRetries.get();
+  }
+
+  public long getFailuresAfterRetries() {
+    return failuresAfterRetries.get();
+  }
+}
@@ -0,0 +1,15 @@
+package app.unattach.model.service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public record SearchPage(List<String> messageIds, String nextPageToken, long resultSizeEstimate) {
+  /**
+   * @return This page with only the given message IDs kept.
+   */
+  public SearchPage retainAll(Set<String> messageIdsToKeep) {
+    List<String> keptMessageIds = messageIds.stream().filter(messageIdsToKeep::contains).collect(Collectors.toList());
+    return new SearchPage(keptMessageIds, nextPageToken, Math.min(resultSizeEstimate, messageIdsToKeep.size()));
+  }
+}
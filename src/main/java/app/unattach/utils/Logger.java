@@ -19,7 +19,13 @@ public record Logger(org.apache.logging.log4j.Logger logger) {
   }
 
   public void debug(String format, Object... args) {
-    logger.debug(String.format(format, args));
+    if (logger.isDebugEnabled()) {
+      logger.debug(String.format(format, args));
+    }
+  }
+
+  public boolean isInfoEnabled() {
+    return logger.isInfoEnabled();
   }
 
   public void info(Object message) {
@@ -27,11 +33,15 @@ public record Logger(org.apache.logging.log4j.Logger logger) {
   }
 
   public void info(String format, Object... args) {
-    logger.info(String.format(format, args));
+    if (logger.isInfoEnabled()) {
+      logger.info(String.format(format, args));
+    }
   }
 
   public void warn(String format, Object... args) {
-    logger.warn(String.format(format, args));
+    if (logger.isWarnEnabled()) {
+      logger.warn(String.format(format, args));
+    }
   }
 
   public void error(Object message) {
@@ -39,7 +49,9 @@ public record Logger(org.apache.logging.log4j.Logger logger) {
   }
 
   public void error(String format, Object... args) {
-    logger.error(String.format(format, args));
+    if (logger.isErrorEnabled()) {
+      logger.error(String.format(format, args));
+    }
   }
 
   public void error(Object message, Throwable t) {
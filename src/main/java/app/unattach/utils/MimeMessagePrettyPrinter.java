@@ -10,6 +10,9 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
 public class MimeMessagePrettyPrinter {
+  // parts nested deeper than this are left out of summaries
+  private static final int MAX_SUMMARY_DEPTH = 16;
+
   public static String prettyPrint(Part part) throws MessagingException, IOException {
     StringBuilder sb = new StringBuilder();
     prettyPrint(sb, part, 0, true);
@@ -39,4 +42,42 @@ public class MimeMessagePrettyPrinter {
       sb.append(" [UnsupportedEncoding: ").append(e.getMessage()).append("]");
     }
   }
+
+  /**
+   * @return A one-line summary of the structure, e.g. "multipart/mixed(text/plain, image/png attachment 'a.png')".
+   *         Unlike {@link #prettyPrint(Part)}, it reads only the headers of parts other than multiparts, rather than
+   *         decoding their content.
+   */
+  public static String summarize(Part part) throws MessagingException, IOException {
+    StringBuilder sb = new StringBuilder();
+    summarize(sb, part, 0);
+    return sb.toString();
+  }
+
+  private static void summarize(StringBuilder sb, Part part, int depth) throws MessagingException, IOException {
+    String contentType = part.getContentType();
+    int parametersStart = contentType.indexOf(';');
+    sb.append((parametersStart < 0 ? contentType : contentType.substring(0, parametersStart)).trim().toLowerCase());
+    if (part.getDisposition() != null) {
+      sb.append(' ').append(part.getDisposition().toLowerCase());
+    }
+    if (part.getFileName() != null) {
+      sb.append(" '").append(part.getFileName()).append('\'');
+    }
+    if (!part.isMimeType("multipart/*") || !(part.getContent() instanceof Multipart multipart)) {
+      return;
+    }
+    sb.append('(');
+    if (depth == MAX_SUMMARY_DEPTH) {
+      sb.append("...");
+    } else {
+      for (int i = 0; i < multipart.getCount(); ++i) {
+        if (i > 0) {
+          sb.append(", ");
+        }
+        summarize(sb, multipart.getBodyPart(i), depth + 1);
+      }
+    }
+    sb.append(')');
+  }
 }
@@ -2,7 +2,6 @@ package app.unattach.view;
 
 import app.unattach.controller.Controller;
 import app.unattach.controller.ControllerFactory;
-import app.unattach.controller.LongTask;
 import app.unattach.model.*;
 import app.unattach.model.service.GmailServiceException;
 import app.unattach.utils.Logger;
@@ -29,7 +28,10 @@ import org.apache.commons.lang3.time.DurationFormatUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
@@ -40,6 +42,8 @@ import static app.unattach.view.Action.*;
 
 public class MainViewController {
   private static final Logger logger = Logger.get();
+  private static final DateTimeFormatter PAUSE_TIME_FORMATTER =
+      DateTimeFormatter.ofPattern("HH:mm").withZone(ZoneId.systemDefault());
 
   private Controller controller;
   @FXML
@@ -144,8 +148,11 @@ public class MainViewController {
 
   private long bytesProcessed = 0;
   private long allBytesToProcess = 0;
-  private boolean stopProcessingButtonPressed = false;
+  private int emailsProcessed = 0;
+  private int emailsFailed = 0;
+  private ProcessEmailsTask processEmailsTask;
   private Timeline timeline;
+  private Timeline processingTimeline;
 
   @FXML
   private void initialize() throws GmailServiceException {
@@ -303,10 +310,13 @@ public class MainViewController {
 
   @FXML
   private void onSearchButtonPressed() {
-    onSearchButtonPressed(null);
+    onSearchButtonPressed(false, null);
   }
 
-  private void onSearchButtonPressed(Runnable successCallback) {
+  /**
+   * @param incremental Whether to only consider emails added since the last search with the same query.
+   */
+  private void onSearchButtonPressed(boolean incremental, Runnable successCallback) {
     disableControls();
     resultsSubView.setText("Results");
     stopSearchButton.setDisable(false);
@@ -314,6 +324,7 @@ public class MainViewController {
     resultsTable.setItems(FXCollections.emptyObservableList());
     AtomicInteger currentBatch = new AtomicInteger();
     AtomicInteger numberOfBatches = new AtomicInteger();
+    AtomicInteger failedEmails = new AtomicInteger();
 
     Task<Void> task = new Task<>() {
       @Override
@@ -321,17 +332,24 @@ public class MainViewController {
         updateProgress(0, 1);
         updateMessage("Getting info about emails...");
         String query = getQuery();
-        GetEmailMetadataTask longTask = controller.getSearchTask(query);
+        GetEmailMetadataTask longTask =
+            incremental ? controller.getIncrementalSearchTask(query) : controller.getSearchTask(query);
         currentBatch.set(0);
         numberOfBatches.set(longTask.getNumberOfSteps());
         updateProgress(currentBatch.get(), numberOfBatches.get());
         updateMessage(String.format("Getting info about emails (%s)...", getStatusString()));
-        while (!stopSearchButtonPressed && longTask.hasMoreSteps()) {
+        while (longTask.hasMoreSteps()) {
+          if (stopSearchButtonPressed) {
+            longTask.stop();
+            break;
+          }
           GetEmailMetadataTask.Result result = longTask.takeStep();
           currentBatch.set(result.currentBatchNumber());
+          numberOfBatches.set(longTask.getNumberOfSteps());
           updateProgress(currentBatch.get(), numberOfBatches.get());
           updateMessage(String.format("Getting info about emails (%s)...", getStatusString()));
         }
+        failedEmails.set(longTask.getFailedEmails().size());
         return null;
       }
 
@@ -339,8 +357,12 @@ public class MainViewController {
         if (numberOfBatches.get() == 0) {
           return "no emails matched the query";
         } else {
-          return String.format("completed %d of %d batches, %d%%",
+          String status = String.format("completed %d of %d batches, %d%%",
               currentBatch.get(), numberOfBatches.get(), 100 * currentBatch.get() / numberOfBatches.get());
+          if (failedEmails.get() > 0) {
+            status += String.format(", failed to get info about %d emails", failedEmails.get());
+          }
+          return status;
         }
       }
 
@@ -510,7 +532,6 @@ public class MainViewController {
         controller.getConfig().getFilenameSchema());
     disableControls();
     stopProcessingButton.setDisable(false);
-    stopProcessingButtonPressed = false;
     File targetDirectory = getTargetDirectory();
     bytesProcessed = 0;
     allBytesToProcess = emailsToProcess.stream().mapToLong(email -> (long) email.getSizeInBytes()).sum();
@@ -520,7 +541,7 @@ public class MainViewController {
     SortedMap<String, String> idToLabel = controller.getIdToLabel();
     ProcessSettings processSettings = new ProcessSettings(processOption, targetDirectory, filenameSchema,
         addMetadataCheckMenuItem.isSelected(), idToLabel);
-    processEmail(emailsToProcess, 0, 0, processSettings);
+    processEmails(emailsToProcess, processSettings);
   }
 
   private void showNoEmailsAlert() {
@@ -533,65 +554,94 @@ public class MainViewController {
     alert.showAndWait();
   }
 
-  private void processEmail(List<Email> emailsToProcess, int nextEmailIndex, int failed, ProcessSettings processSettings) {
-    String processingStatusString = getProcessingStatusString(emailsToProcess, nextEmailIndex, failed);
-    if (stopProcessingButtonPressed || nextEmailIndex >= emailsToProcess.size()) {
-      String message = "Processing stopped (%s).".formatted(processingStatusString);
-      logger.info(message);
-      processingProgressBarWithText.textProperty().setValue(message);
-      resetControls();
-      if (enableScheduleCheckBox.isSelected()) {
-        scheduleNextRun(processSettings.processOption().action());
-      }
-      return;
-    }
-    Email email = emailsToProcess.get(nextEmailIndex);
-    logger.info("Processing email with subject '%s'...", email.getSubject());
-    processingProgressBarWithText.textProperty().setValue(
-        "Processing selected emails (%s)...".formatted(processingStatusString));
+  private void processEmails(List<Email> emailsToProcess, ProcessSettings processSettings) {
+    processEmailsTask = controller.getProcessEmailsTask(emailsToProcess, processSettings);
+    emailsProcessed = 0;
+    emailsFailed = 0;
+    updateProcessingText(emailsToProcess);
+    // Workers may pause for hours until Gmail's daily limits reset, without any email finishing meanwhile.
+    processingTimeline =
+        new Timeline(new KeyFrame(Duration.seconds(1), event -> updateProcessingText(emailsToProcess)));
+    processingTimeline.setCycleCount(Timeline.INDEFINITE);
+    processingTimeline.play();
 
-    Task<ProcessEmailResult> task = new Task<>() {
+    Task<Void> task = new Task<>() {
       @Override
-      protected ProcessEmailResult call() throws Exception {
-        LongTask<ProcessEmailResult> longTask = controller.getProcessTask(email, processSettings);
-        // This is 'if' and not 'while', because longTask always has a single step.
-        if (!stopProcessingButtonPressed && longTask.hasMoreSteps()) {
-          return longTask.takeStep();
+      protected Void call() throws Exception {
+        ProcessEmailsTask longTask = processEmailsTask;
+        while (longTask.hasMoreSteps()) {
+          ProcessEmailsTask.Result result = longTask.takeStep();
+          if (result != null) {
+            Platform.runLater(() -> onEmailProcessed(emailsToProcess, result));
+          }
         }
         return null;
       }
 
       @Override
       protected void succeeded() {
-        ProcessEmailResult processEmailResult = getValue();
-        if (processEmailResult != null) {
-          if (processEmailResult.newId() != null) {
-            email.setGmailId(processEmailResult.newId());
-          }
-          bytesProcessed += email.getSizeInBytes();
-          processingProgressBarWithText.progressProperty().setValue(1.0 * bytesProcessed / allBytesToProcess);
-          resultsTable.refresh();
-        }
-        processEmail(emailsToProcess, nextEmailIndex + 1, failed, processSettings);
+        onProcessingFinished(emailsToProcess, processSettings);
       }
 
       @Override
       protected void failed() {
-        email.setStatus(EmailStatus.FAILED);
-        email.setProcessLog(getException().getMessage());
-        resultsTable.refresh();
         reportError("Failed to process selected emails.", getException());
-        processEmail(emailsToProcess, nextEmailIndex + 1, failed + 1, processSettings);
+        onProcessingFinished(emailsToProcess, processSettings);
       }
     };
 
     new Thread(task).start();
   }
 
-  private String getProcessingStatusString(List<Email> emailsToProcess, int nextEmailIndex, int failed) {
+  private void onEmailProcessed(List<Email> emailsToProcess, ProcessEmailsTask.Result result) {
+    Email email = result.email();
+    if (result.exception() != null) {
+      email.setStatus(EmailStatus.FAILED);
+      String processLog = result.exception().getMessage();
+      if (Constants.STRUCTURE_IN_PROCESS_LOG && !email.getProcessLog().isEmpty()) {
+        processLog += " (MIME structure: " + email.getProcessLog() + ")";
+      }
+      email.setProcessLog(processLog);
+      ++emailsFailed;
+      reportError("Failed to process selected emails.", result.exception());
+    } else if (result.processEmailResult() != null) {
+      if (result.processEmailResult().newId() != null) {
+        email.setGmailId(result.processEmailResult().newId());
+      }
+      bytesProcessed += email.getSizeInBytes();
+      processingProgressBarWithText.progressProperty().setValue(1.0 * bytesProcessed / allBytesToProcess);
+    }
+    ++emailsProcessed;
+    resultsTable.refresh();
+    updateProcessingText(emailsToProcess);
+  }
+
+  private void updateProcessingText(List<Email> emailsToProcess) {
+    Instant pausedUntil = processEmailsTask == null ? null : processEmailsTask.getPausedUntil();
+    String text = pausedUntil == null
+        ? "Processing selected emails (%s)...".formatted(getProcessingStatusString(emailsToProcess))
+        : "Paused until %s, when Gmail's daily limits reset (%s).".formatted(
+            PAUSE_TIME_FORMATTER.format(pausedUntil), getProcessingStatusString(emailsToProcess));
+    processingProgressBarWithText.textProperty().setValue(text);
+  }
+
+  private void onProcessingFinished(List<Email> emailsToProcess, ProcessSettings processSettings) {
+    processingTimeline.stop();
+    processingTimeline = null;
+    processEmailsTask = null;
+    String message = "Processing stopped (%s).".formatted(getProcessingStatusString(emailsToProcess));
+    logger.info(message);
+    processingProgressBarWithText.textProperty().setValue(message);
+    resetControls();
+    if (enableScheduleCheckBox.isSelected()) {
+      scheduleNextRun(processSettings.processOption().action());
+    }
+  }
+
+  private String getProcessingStatusString(List<Email> emailsToProcess) {
     return String.format("processed %d of %d, %dMB / %dMB, %d%% by size, %d failed",
-        nextEmailIndex, emailsToProcess.size(), toMegaBytes(bytesProcessed), toMegaBytes(allBytesToProcess),
-        allBytesToProcess == 0 ? 0 : 100 * bytesProcessed / allBytesToProcess, failed);
+        emailsProcessed, emailsToProcess.size(), toMegaBytes(bytesProcessed), toMegaBytes(allBytesToProcess),
+        allBytesToProcess == 0 ? 0 : 100 * bytesProcessed / allBytesToProcess, emailsFailed);
   }
 
   private static int toMegaBytes(long bytes) {
@@ -601,7 +651,9 @@ public class MainViewController {
   @FXML
   private void onStopProcessingButtonPressed() {
     stopProcessingButton.setDisable(true);
-    stopProcessingButtonPressed = true;
+    if (processEmailsTask != null) {
+      processEmailsTask.stop();
+    }
   }
 
   private List<Email> getEmailsToProcess() {
@@ -806,7 +858,8 @@ public class MainViewController {
 
   @FXML
   private void onSchedule(Action action) {
-    onSearchButtonPressed(() -> {
+    // Scheduled runs follow a full search, so they only need to look at emails added since.
+    onSearchButtonPressed(true, () -> {
       toggleAllEmailsCheckBox.setSelected(true);
       switch (action) {
         case DOWNLOAD -> onDownloadButtonPressed();
@@ -46,6 +46,8 @@ public class UnattachLabelsController {
             You can update the label's appearance by pressing
             ⋮ next to the label's name in the list of labels."""
     );
+    // The labels may have just been edited within Gmail.
+    controller.invalidateLabels();
     String downloadedLabelId = controller.getOrCreateDownloadedLabelId();
     String removedLabelId = controller.getOrCreateRemovedLabelId();
     List<GmailLabel> labels = controller.getIdToLabel().entrySet().stream()
@@ -54,7 +54,7 @@ public class GmailServiceTest {
       GmailServiceManager gmailServiceManager =
           new FakeGmailServiceManager(emailAddress, idToLabel, messages, beforeIdToAfterId);
       Config config = new BaseConfig();
-      Model model = new LiveModel(config, userStorage, gmailServiceManager);
+      Model model = new LiveModel(config, userStorage, gmailServiceManager, new BaseMetadataCache());
       controller = new DefaultController(model);
       assertEquals(controller.signIn(), emailAddress);
     } catch (IOException e) {
@@ -78,64 +78,124 @@ public class GmailServiceTest {
   }
 
   @Test
-  void test_getProcessTask_SHOULD_download_backup_and_not_update_WHEN_downloading_simple(@TempDir Path tempDir)
+  void test_getIncrementalSearchTask_SHOULD_search_all_emails_WHEN_query_was_not_searched_before()
+      throws GmailServiceException, LongTaskException {
+    searchForEmailsThroughController("mixed");
+    List<Email> emails = searchForEmailsThroughController("simple attachment", true);
+    assertEquals(1, emails.size());
+  }
+
+  @Test
+  void test_getIncrementalSearchTask_SHOULD_skip_emails_processed_before_WHEN_query_was_searched_before(
+      @TempDir Path tempDir) throws GmailServiceException, LongTaskException {
+    processEmails(tempDir, "simple attachment", DOWNLOAD, true);
+    List<Email> emails = searchForEmailsThroughController("simple attachment", true);
+    assertEquals(0, emails.size());
+  }
+
+  @Test
+  void test_getIncrementalSearchTask_SHOULD_find_emails_found_before_WHEN_they_were_not_processed()
+      throws GmailServiceException, LongTaskException {
+    searchForEmailsThroughController("simple attachment");
+    List<Email> emails = searchForEmailsThroughController("simple attachment", true);
+    assertEquals(1, emails.size());
+  }
+
+  @Test
+  void test_getProcessEmailsTask_SHOULD_download_backup_and_not_update_WHEN_downloading_simple(@TempDir Path tempDir)
       throws GmailServiceException, LongTaskException, IOException, MessagingException {
     testDownloadAndOrRemove(tempDir,  "simple attachment", DOWNLOAD, true,
         "logo-256.png");
   }
 
   @Test
-  void test_getProcessTask_SHOULD_download_backup_and_update_WHEN_downloading_and_removing_simple(@TempDir Path tempDir)
+  void test_getProcessEmailsTask_SHOULD_download_backup_and_update_WHEN_downloading_and_removing_simple(@TempDir Path tempDir)
       throws GmailServiceException, LongTaskException, IOException, MessagingException {
     testDownloadAndOrRemove(tempDir, "simple attachment", DOWNLOAD_AND_REMOVE, true,
         "logo-256.png");
   }
 
   @Test
-  void test_getProcessTask_SHOULD_remove_backup_and_update_WHEN_removing_simple(@TempDir Path tempDir)
+  void test_getProcessEmailsTask_SHOULD_remove_backup_and_update_WHEN_removing_simple(@TempDir Path tempDir)
       throws GmailServiceException, LongTaskException, IOException, MessagingException {
     testDownloadAndOrRemove(tempDir, "simple attachment", REMOVE, true, "logo-256.png");
   }
 
   @Test
-  void test_getProcessTask_SHOULD_download_backup_and_not_update_WHEN_downloading_mixed(@TempDir Path tempDir)
+  void test_getProcessEmailsTask_SHOULD_download_backup_and_not_update_WHEN_downloading_mixed(@TempDir Path tempDir)
       throws GmailServiceException, LongTaskException, IOException, MessagingException {
     testDownloadAndOrRemove(tempDir, "mixed", DOWNLOAD, true, "logo-attached.png",
         "logo-embedded.png");
   }
 
   @Test
-  void test_getProcessTask_SHOULD_download_backup_and_update_WHEN_downloading_and_removing_mixed(@TempDir Path tempDir)
+  void test_getProcessEmailsTask_SHOULD_download_backup_and_update_WHEN_downloading_and_removing_mixed(@TempDir Path tempDir)
       throws GmailServiceException, LongTaskException, IOException, MessagingException {
     testDownloadAndOrRemove(tempDir, "mixed", DOWNLOAD_AND_REMOVE, false,
         "logo-attached.png");
   }
 
   @Test
-  void test_getProcessTask_SHOULD_remove_backup_and_update_WHEN_downloading_and_removing_mixed(@TempDir Path tempDir)
+  void test_getProcessEmailsTask_SHOULD_remove_backup_and_update_WHEN_downloading_and_removing_mixed(@TempDir Path tempDir)
       throws GmailServiceException, LongTaskException, IOException, MessagingException {
     testDownloadAndOrRemove(tempDir, "mixed", REMOVE, false, "logo-attached.png");
   }
 
   @Test
-  void test_getProcessTask_SHOULD_download_backup_and_not_update_WHEN_downloading_no_body(@TempDir Path tempDir)
+  void test_getProcessEmailsTask_SHOULD_download_backup_and_not_update_WHEN_downloading_no_body(@TempDir Path tempDir)
       throws GmailServiceException, LongTaskException, IOException, MessagingException {
     testDownloadAndOrRemove(tempDir, "PDF attachment", DOWNLOAD, true, "Google.pdf");
   }
 
   @Test
-  void test_getProcessTask_SHOULD_download_backup_and_update_WHEN_downloading_and_removing_no_body(@TempDir Path tempDir)
+  void test_getProcessEmailsTask_SHOULD_download_backup_and_update_WHEN_downloading_and_removing_no_body(@TempDir Path tempDir)
       throws GmailServiceException, LongTaskException, IOException, MessagingException {
     testDownloadAndOrRemove(tempDir, "PDF attachment", DOWNLOAD_AND_REMOVE, true,
         "Google.pdf");
   }
 
   @Test
-  void test_getProcessTask_SHOULD_remove_backup_and_update_WHEN_downloading_and_removing_no_body(@TempDir Path tempDir)
+  void test_getProcessEmailsTask_SHOULD_remove_backup_and_update_WHEN_downloading_and_removing_no_body(@TempDir Path tempDir)
       throws GmailServiceException, LongTaskException, IOException, MessagingException {
     testDownloadAndOrRemove(tempDir, "PDF attachment", REMOVE, true, "Google.pdf");
   }
 
+  @Test
+  void test_getProcessEmailsTask_SHOULD_download_only_attachments_WHEN_downloading_mixed_without_backup(@TempDir Path tempDir)
+      throws GmailServiceException, LongTaskException, IOException {
+    testDownloadWithoutBackup(tempDir, "mixed", true, "logo-attached.png", "logo-embedded.png");
+    FileUtils.cleanDirectory(tempDir.toFile());
+    testDownloadWithoutBackup(tempDir, "mixed", false, "logo-attached.png");
+  }
+
+  @Test
+  void test_getProcessEmailsTask_SHOULD_download_only_attachments_WHEN_downloading_no_body_without_backup(
+      @TempDir Path tempDir) throws GmailServiceException, LongTaskException, IOException {
+    testDownloadWithoutBackup(tempDir, "PDF attachment", true, "Google.pdf");
+  }
+
+  @Test
+  void test_getProcessEmailsTask_SHOULD_skip_email_WHEN_removing_without_backup_and_there_is_nothing_to_remove(
+      @TempDir Path tempDir) throws GmailServiceException, LongTaskException {
+    processEmail(tempDir, "simple attachment", REMOVE, true);
+    List<ProcessEmailResult> results = processEmails(tempDir, "simple attachment", REMOVE, true, false);
+    assertEquals(1, results.size());
+    assertNull(results.get(0).newId());
+    assertTrue(results.get(0).filenames().isEmpty());
+  }
+
+  private void testDownloadWithoutBackup(Path tempDir, String query, boolean processEmbedded, String... attachments)
+      throws GmailServiceException, LongTaskException, IOException {
+    List<ProcessEmailResult> results = processEmails(tempDir, query, DOWNLOAD, processEmbedded, false);
+    assertEquals(1, results.size());
+    ProcessEmailResult result = results.get(0);
+    assertNull(result.newId());
+    assertEquals(Sets.newHashSet(attachments), result.filenames());
+    Set<String> attachmentsFound = checkFilesEqual(tempDir.resolve("attachments"), Path.of("test-store"));
+    assertEquals(Sets.newHashSet(attachments), attachmentsFound);
+    assertEquals(0, getEmailBackups(tempDir).length);
+  }
+
   private void testDownloadAndOrRemove(Path tempDir, String query, Action action, boolean processEmbedded,
                                        String... attachments)
       throws GmailServiceException, LongTaskException, IOException, MessagingException {
@@ -210,25 +270,48 @@ public class GmailServiceTest {
   @SuppressWarnings("SameParameterValue")
   private List<ProcessEmailResult> processEmails(Path tempDir, String query, Action action, boolean processEmbedded)
       throws GmailServiceException, LongTaskException {
+    return processEmails(tempDir, query, action, processEmbedded, true);
+  }
+
+  private List<ProcessEmailResult> processEmails(Path tempDir, String query, Action action, boolean processEmbedded,
+                                                 boolean backupEmail)
+      throws GmailServiceException, LongTaskException {
+    List<Email> emails = searchForEmailsThroughController(query);
+    // As when the user selects all the emails found.
+    emails.forEach(email -> email.setStatus(EmailStatus.TO_PROCESS));
+    String downloadedLabelId = controller.getOrCreateDownloadedLabelId();
+    String removedLabelId = controller.getOrCreateRemovedLabelId();
+    ProcessOption processOption = new ProcessOption(action, processEmbedded, backupEmail,
+        true, downloadedLabelId, removedLabelId);
+    String filenameSchema = "attachments/${ATTACHMENT_NAME}";
+    SortedMap<String, String> idToLabel = controller.getIdToLabel();
+    ProcessSettings processSettings =
+        new ProcessSettings(processOption, tempDir.toFile(), filenameSchema, true, idToLabel);
+    // The same task as the app runs, so that changes batched across emails are applied once the run finishes.
+    ProcessEmailsTask task = controller.getProcessEmailsTask(emails, processSettings);
     List<ProcessEmailResult> results = new ArrayList<>();
-    for (Email email : searchForEmailsThroughController(query)) {
-      String downloadedLabelId = controller.getOrCreateDownloadedLabelId();
-      String removedLabelId = controller.getOrCreateRemovedLabelId();
-      ProcessOption processOption = new ProcessOption(action, processEmbedded, true,
-          true, downloadedLabelId, removedLabelId);
-      String filenameSchema = "attachments/${ATTACHMENT_NAME}";
-      SortedMap<String, String> idToLabel = controller.getIdToLabel();
-      ProcessSettings processSettings =
-          new ProcessSettings(processOption, tempDir.toFile(), filenameSchema, true, idToLabel);
-      LongTask<ProcessEmailResult> task = controller.getProcessTask(email, processSettings);
-      results.add(task.takeStep());
+    while (task.hasMoreSteps()) {
+      ProcessEmailsTask.Result result = task.takeStep();
+      if (result == null) {
+        continue;
+      }
+      if (result.exception() != null) {
+        throw result.exception();
+      }
+      results.add(result.processEmailResult());
     }
     return results;
   }
 
-  private List<Email> searchForEmailsThroughController(@SuppressWarnings("SameParameterValue") String query)
+  private List<Email> searchForEmailsThroughController(String query)
+      throws GmailServiceException, LongTaskException {
+    return searchForEmailsThroughController(query, false);
+  }
+
+  private List<Email> searchForEmailsThroughController(String query, boolean incremental)
       throws GmailServiceException, LongTaskException {
-    GetEmailMetadataTask searchTask = controller.getSearchTask(query);
+    GetEmailMetadataTask searchTask =
+        incremental ? controller.getIncrementalSearchTask(query) : controller.getSearchTask(query);
     while (searchTask.hasMoreSteps()) {
       searchTask.takeStep();
     }
@@ -0,0 +1,54 @@
+package app.unattach.model;
+
+import com.google.api.services.gmail.model.MessagePart;
+import com.google.api.services.gmail.model.MessagePartHeader;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AttachmentDetectorTest {
+  private static MessagePart getPart(String mimeType, String filename, String disposition, MessagePart... parts) {
+    MessagePart part = new MessagePart().setMimeType(mimeType).setFilename(filename);
+    part.setHeaders(disposition == null ? List.of() :
+        List.of(new MessagePartHeader().setName("Content-Disposition").setValue(disposition)));
+    if (parts.length > 0) {
+      part.setParts(List.of(parts));
+    }
+    return part;
+  }
+
+  @Test
+  void test_detect_SHOULD_find_embedded_attachments_only_WHEN_processing_embedded() {
+    MessagePart attached = getPart("image/png", "attached.png", "attachment; filename=attached.png");
+    MessagePart embedded = getPart("image/png", "embedded.png", "inline; filename=embedded.png");
+    MessagePart payload = getPart("multipart/mixed", "", null,
+        getPart("multipart/related", "", null, getPart("text/html", "", null), embedded), attached);
+    assertEquals(List.of(attached), AttachmentDetector.detect(payload, false));
+    assertEquals(List.of(embedded, attached), AttachmentDetector.detect(payload, true));
+  }
+
+  @Test
+  void test_detect_SHOULD_find_nothing_WHEN_there_are_no_filenames() {
+    MessagePart payload = getPart("multipart/alternative", "", null, getPart("text/plain", "", null),
+        getPart("text/html", "", null));
+    assertEquals(List.of(), AttachmentDetector.detect(payload, true));
+  }
+
+  @Test
+  void test_detect_SHOULD_find_nothing_WHEN_filename_is_only_whitespace() {
+    MessagePart payload = getPart("multipart/mixed", "", null, getPart("text/plain", "", null),
+        getPart("image/png", " \t", "attachment; filename=\" \t\""));
+    assertEquals(List.of(), AttachmentDetector.detect(payload, true));
+  }
+
+  @Test
+  void test_detect_SHOULD_not_tell_WHEN_structure_is_incomplete() {
+    // Too deeply nested for the parts to be listed.
+    assertNull(AttachmentDetector.detect(getPart("multipart/mixed", "", null), true));
+    // Cached before the structure was part of the metadata.
+    assertNull(AttachmentDetector.detect(new MessagePart().setFilename(""), true));
+    assertNull(AttachmentDetector.detect(null, true));
+  }
+}
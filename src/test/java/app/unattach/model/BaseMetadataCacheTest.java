@@ -0,0 +1,58 @@
+package app.unattach.model;
+
+import com.google.api.services.gmail.model.Message;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BaseMetadataCacheTest {
+  private static Message getMessage(String id) {
+    return new Message().setId(id).setSizeEstimate(1000).setLabelIds(List.of("INBOX"));
+  }
+
+  @Test
+  void test_get_SHOULD_return_copy_of_message_WHEN_put_before() {
+    BaseMetadataCache cache = new BaseMetadataCache();
+    Message message = getMessage("1");
+    cache.put(message);
+    message.setSizeEstimate(2000);
+    Message cachedMessage = cache.get("1");
+    assertEquals("1", cachedMessage.getId());
+    assertEquals(1000, cachedMessage.getSizeEstimate());
+    assertEquals(List.of("INBOX"), cachedMessage.getLabelIds());
+    assertNull(cache.get("2"));
+  }
+
+  @Test
+  void test_put_SHOULD_evict_least_recently_used_WHEN_cache_is_full() throws IOException {
+    int messageSize = BaseMetadataCache.JSON_FACTORY.toString(getMessage("1")).length();
+    BaseMetadataCache cache = new BaseMetadataCache(3L * messageSize);
+    cache.put(getMessage("1"));
+    cache.put(getMessage("2"));
+    cache.put(getMessage("3"));
+    assertNotNull(cache.get("1"));
+    cache.put(getMessage("4"));
+    assertEquals(3, cache.size());
+    assertNotNull(cache.get("1"));
+    assertNull(cache.get("2"));
+  }
+
+  @Test
+  void test_invalidate_SHOULD_remove_messages_WHEN_they_changed() {
+    BaseMetadataCache cache = new BaseMetadataCache();
+    cache.reset("user@example.com", "100");
+    cache.put(getMessage("1"));
+    cache.put(getMessage("2"));
+    cache.invalidate(List.of("1"));
+    cache.setHistoryId("200");
+    assertNull(cache.get("1"));
+    assertNotNull(cache.get("2"));
+    assertEquals("200", cache.getHistoryId());
+    cache.reset("other@example.com", "300");
+    assertNull(cache.get("2"));
+    assertEquals("other@example.com", cache.getEmailAddress());
+  }
+}
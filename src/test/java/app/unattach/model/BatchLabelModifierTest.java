@@ -0,0 +1,45 @@
+package app.unattach.model;
+
+import app.unattach.model.service.FakeGmailService;
+import app.unattach.model.service.GmailServiceException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class BatchLabelModifierTest {
+  private static class FlakyGmailService extends FakeGmailService {
+    private final List<List<String>> batches = new ArrayList<>();
+    private int failuresLeft;
+
+    private FlakyGmailService(int failures) {
+      super("rok.strnisa@gmail.com", new TreeMap<>(), List.of(), Map.of());
+      failuresLeft = failures;
+    }
+
+    @Override
+    public void addLabel(List<String> messageIds, String labelId) throws GmailServiceException {
+      if (failuresLeft > 0) {
+        --failuresLeft;
+        throw new GmailServiceException(new IOException("Backend error."));
+      }
+      batches.add(messageIds);
+    }
+  }
+
+  @Test
+  void test_addLabel_SHOULD_keep_batch_for_flush_WHEN_adding_label_to_full_batch_fails() throws GmailServiceException {
+    FlakyGmailService service = new FlakyGmailService(1);
+    BatchLabelModifier labelModifier = new BatchLabelModifier(service);
+    for (int i = 0; i < BatchLabelModifier.MAX_BATCH_SIZE + 1; ++i) {
+      labelModifier.addLabel(String.valueOf(i), "Label_11");
+    }
+    assertEquals(0, service.batches.size());
+    labelModifier.flush();
+    assertEquals(2, service.batches.size());
+    assertEquals(BatchLabelModifier.MAX_BATCH_SIZE, service.batches.get(0).size());
+    assertEquals(List.of(String.valueOf(BatchLabelModifier.MAX_BATCH_SIZE)), service.batches.get(1));
+  }
+}
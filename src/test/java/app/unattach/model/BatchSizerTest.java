@@ -0,0 +1,34 @@
+package app.unattach.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class BatchSizerTest {
+  private static final long FAST = TimeUnit.SECONDS.toNanos(1);
+  private static final long SLOW = TimeUnit.SECONDS.toNanos(30);
+
+  @Test
+  void test_onBatchCompleted_SHOULD_grow_up_to_maximum_WHEN_batches_are_fast() {
+    BatchSizer batchSizer = new BatchSizer();
+    for (int i = 0; i < 20; ++i) {
+      batchSizer.onBatchCompleted(FAST, 0);
+    }
+    assertEquals(BatchSizer.MAX_BATCH_SIZE, batchSizer.getBatchSize());
+  }
+
+  @Test
+  void test_onBatchCompleted_SHOULD_shrink_down_to_minimum_WHEN_rate_limited_or_slow() {
+    BatchSizer batchSizer = new BatchSizer();
+    batchSizer.onBatchCompleted(FAST, 1);
+    assertEquals(BatchSizer.INITIAL_BATCH_SIZE / 2, batchSizer.getBatchSize());
+    batchSizer.onBatchCompleted(SLOW, 0);
+    assertEquals(BatchSizer.INITIAL_BATCH_SIZE / 2 * 3 / 4, batchSizer.getBatchSize());
+    for (int i = 0; i < 20; ++i) {
+      batchSizer.onBatchCompleted(FAST, 5);
+    }
+    assertEquals(BatchSizer.MIN_BATCH_SIZE, batchSizer.getBatchSize());
+  }
+}
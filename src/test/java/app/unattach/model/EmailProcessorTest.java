@@ -0,0 +1,111 @@
+package app.unattach.model;
+
+import org.junit.jupiter.api.Test;
+
+import javax.mail.BodyPart;
+import javax.mail.MessagingException;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class EmailProcessorTest {
+  private static MimeBodyPart getTextPart(String text) throws MessagingException {
+    MimeBodyPart part = new MimeBodyPart();
+    part.setText(text);
+    // Set as when saving changes, which is itself recursive.
+    part.setHeader("Content-Type", "text/plain");
+    return part;
+  }
+
+  private static MimeBodyPart getMultipartPart(String subtype, BodyPart... parts) throws MessagingException {
+    MimeMultipart multipart = new MimeMultipart(subtype);
+    for (BodyPart part : parts) {
+      multipart.addBodyPart(part);
+    }
+    MimeBodyPart part = new MimeBodyPart();
+    part.setContent(multipart);
+    part.setHeader("Content-Type", multipart.getContentType());
+    return part;
+  }
+
+  @Test
+  void test_explore_SHOULD_visit_parts_in_order_per_function_WHEN_given_several_functions()
+      throws IOException, MessagingException {
+    Part root = getMultipartPart("mixed", getMultipartPart("related", getTextPart("a"), getTextPart("b")),
+        getTextPart("c"));
+    List<String> allTexts = new ArrayList<>();
+    List<String> unrelatedTexts = new ArrayList<>();
+    EmailProcessor.explore(root, List.of(part -> {
+      if (part.isMimeType("text/plain")) {
+        allTexts.add(part.getContent().toString());
+      }
+      return true;
+    }, part -> {
+      if (part.isMimeType("text/plain")) {
+        unrelatedTexts.add(part.getContent().toString());
+      }
+      return !part.isMimeType("multipart/related");
+    }));
+    assertEquals(List.of("a", "b", "c"), allTexts);
+    assertEquals(List.of("c"), unrelatedTexts);
+  }
+
+  @Test
+  void test_explore_SHOULD_not_overflow_the_stack_WHEN_parts_are_nested_deeply()
+      throws IOException, MessagingException {
+    int depth = 50000;
+    MimeBodyPart part = getTextPart("leaf");
+    for (int i = 0; i < depth; ++i) {
+      part = getMultipartPart("mixed", part);
+    }
+    MimeMessage mimeMessage = new MimeMessage(Session.getInstance(new Properties()));
+    mimeMessage.setContent((MimeMultipart) part.getContent());
+    mimeMessage.setHeader("Content-Type", part.getContentType());
+    int[] partCount = {0};
+    EmailProcessor.explore(mimeMessage, p -> ++partCount[0] > 0);
+    assertEquals(depth + 1, partCount[0]);
+  }
+
+  @Test
+  void test_appendToHtmlBody_SHOULD_insert_before_closing_body_tag_WHEN_there_is_one() {
+    assertEquals("<HTML><Body><p>Hi</p><!-- </body> --><hr /></BODY >\n</HTML>",
+        EmailProcessor.appendToHtmlBody("<HTML><Body><p>Hi</p><!-- </body> --></BODY >\n</HTML>", "<hr />"));
+  }
+
+  @Test
+  void test_appendToHtmlBody_SHOULD_skip_closing_tags_in_comments_and_scripts_WHEN_they_follow_the_body() {
+    assertEquals("<html><body>Hi<hr /></body></html><!-- </body> -->",
+        EmailProcessor.appendToHtmlBody("<html><body>Hi</body></html><!-- </body> -->", "<hr />"));
+    assertEquals("<body>Hi<hr /></body><SCRIPT>var s = '</body>';</SCRIPT>",
+        EmailProcessor.appendToHtmlBody("<body>Hi</body><SCRIPT>var s = '</body>';</SCRIPT>", "<hr />"));
+    assertEquals("<body>Hi<hr /></body><style>/* </body> */</style><!-- </body>",
+        EmailProcessor.appendToHtmlBody("<body>Hi</body><style>/* </body> */</style><!-- </body>", "<hr />"));
+  }
+
+  @Test
+  void test_appendToHtmlBody_SHOULD_fall_back_to_closing_html_tag_or_end_WHEN_there_is_no_closing_body_tag() {
+    assertEquals("<html><p>Hi</p><hr /></html>", EmailProcessor.appendToHtmlBody("<html><p>Hi</p></html>", "<hr />"));
+    assertEquals("<p>Hi</p></bodyguard><hr />", EmailProcessor.appendToHtmlBody("<p>Hi</p></bodyguard>", "<hr />"));
+    assertEquals("<hr />", EmailProcessor.appendToHtmlBody("", "<hr />"));
+  }
+
+  @Test
+  void test_getFilename_SHOULD_return_null_WHEN_filename_is_only_whitespace()
+      throws MessagingException, UnsupportedEncodingException {
+    MimeBodyPart part = getTextPart("a");
+    part.setFileName(" \t");
+    assertNull(EmailProcessor.getFilename(part));
+    part.setFileName(" logo.png ");
+    assertEquals("logo.png", EmailProcessor.getFilename(part));
+  }
+}
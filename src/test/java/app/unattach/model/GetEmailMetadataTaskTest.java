@@ -0,0 +1,94 @@
+package app.unattach.model;
+
+import app.unattach.controller.LongTaskException;
+import app.unattach.model.service.RetryPolicy;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GetEmailMetadataTaskTest {
+  private static GoogleJsonError getError(int code) {
+    GoogleJsonError error = new GoogleJsonError();
+    error.setCode(code);
+    error.setMessage("Error " + code + ".");
+    return error;
+  }
+
+  @Test
+  void test_takeStep_SHOULD_retry_failed_emails_in_later_batches_WHEN_errors_are_transient()
+      throws LongTaskException {
+    Set<String> fetched = ConcurrentHashMap.newKeySet();
+    Set<String> failedOnce = ConcurrentHashMap.newKeySet();
+    GetEmailMetadataTask task = new GetEmailMetadataTask(MessageIdStream.of(List.of("1", "2", "3")), emailIds -> {
+      Map<String, GoogleJsonError> failures = new HashMap<>();
+      for (String emailId : emailIds) {
+        if (emailId.equals("2") && failedOnce.add(emailId)) {
+          failures.put(emailId, getError(429));
+        } else {
+          fetched.add(emailId);
+        }
+      }
+      return failures;
+    }, () -> {}, new RetryPolicy(3, 1, 10), 2);
+    while (task.hasMoreSteps()) {
+      task.takeStep();
+    }
+    assertEquals(Set.of("1", "2", "3"), fetched);
+    assertTrue(task.getFailedEmails().isEmpty());
+  }
+
+  @Test
+  void test_takeStep_SHOULD_report_failed_emails_WHEN_errors_are_permanent_or_persist() throws LongTaskException {
+    Map<String, Integer> attempts = new ConcurrentHashMap<>();
+    GetEmailMetadataTask task = new GetEmailMetadataTask(MessageIdStream.of(List.of("1", "2", "3")), emailIds -> {
+      Map<String, GoogleJsonError> failures = new HashMap<>();
+      for (String emailId : emailIds) {
+        attempts.merge(emailId, 1, Integer::sum);
+        if (emailId.equals("2")) {
+          failures.put(emailId, getError(404));
+        } else if (emailId.equals("3")) {
+          failures.put(emailId, getError(503));
+        }
+      }
+      return failures;
+    }, () -> {}, new RetryPolicy(3, 1, 10), 2);
+    while (task.hasMoreSteps()) {
+      task.takeStep();
+    }
+    assertEquals(Map.of("1", 1, "2", 1, "3", 3), attempts);
+    assertEquals(Set.of("2", "3"), task.getFailedEmails().keySet());
+  }
+
+  @Test
+  void test_takeStep_SHOULD_fetch_batches_concurrently_WHEN_several_are_allowed_in_flight()
+      throws LongTaskException {
+    int maxBatchesInFlight = 3;
+    List<String> emailIds = new ArrayList<>();
+    for (int i = 0; i < maxBatchesInFlight * BatchSizer.INITIAL_BATCH_SIZE; ++i) {
+      emailIds.add(String.valueOf(i));
+    }
+    CountDownLatch allBatchesInFlight = new CountDownLatch(maxBatchesInFlight);
+    Set<String> fetched = ConcurrentHashMap.newKeySet();
+    GetEmailMetadataTask task = new GetEmailMetadataTask(MessageIdStream.of(emailIds), batch -> {
+      allBatchesInFlight.countDown();
+      // Only returns once all batches are being fetched at the same time.
+      try {
+        assertTrue(allBatchesInFlight.await(10, TimeUnit.SECONDS));
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      fetched.addAll(batch);
+      return Map.of();
+    }, () -> {}, new RetryPolicy(3, 1, 10), maxBatchesInFlight);
+    while (task.hasMoreSteps()) {
+      task.takeStep();
+    }
+    assertEquals(new HashSet<>(emailIds), fetched);
+  }
+}
@@ -0,0 +1,50 @@
+package app.unattach.model;
+
+import app.unattach.model.service.GmailServiceException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class LabelCacheTest {
+  private static SortedMap<String, String> getIdToLabel() {
+    return new TreeMap<>(Map.of("1", "Label 1"));
+  }
+
+  @Test
+  void test_get_SHOULD_load_labels_once_WHEN_they_have_not_expired() throws GmailServiceException {
+    AtomicInteger loads = new AtomicInteger();
+    LabelCache labelCache = new LabelCache(() -> {
+      loads.incrementAndGet();
+      return getIdToLabel();
+    });
+    labelCache.get();
+    labelCache.put("2", "Label 2");
+    assertEquals(new TreeMap<>(Map.of("1", "Label 1", "2", "Label 2")), labelCache.get());
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  void test_get_SHOULD_load_labels_again_WHEN_they_have_expired_or_were_invalidated() throws GmailServiceException {
+    AtomicInteger loads = new AtomicInteger();
+    LabelCache labelCache = new LabelCache(() -> {
+      loads.incrementAndGet();
+      return getIdToLabel();
+    }, 0);
+    labelCache.get();
+    labelCache.get();
+    assertEquals(2, loads.get());
+    LabelCache longLivedLabelCache = new LabelCache(() -> {
+      loads.incrementAndGet();
+      return getIdToLabel();
+    });
+    longLivedLabelCache.get();
+    longLivedLabelCache.invalidate();
+    longLivedLabelCache.get();
+    assertEquals(4, loads.get());
+  }
+}
@@ -0,0 +1,54 @@
+package app.unattach.model;
+
+import app.unattach.model.service.GmailServiceException;
+import app.unattach.model.service.SearchPage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageIdStreamTest {
+  @Test
+  void test_take_SHOULD_return_first_page_WHEN_later_pages_are_still_loading() throws Exception {
+    CountDownLatch firstPageTaken = new CountDownLatch(1);
+    MessageIdStream stream = MessageIdStream.startPaging(pageToken -> {
+      if (pageToken == null) {
+        return new SearchPage(List.of("1", "2", "3"), "page-2", 5);
+      }
+      try {
+        assertTrue(firstPageTaken.await(10, TimeUnit.SECONDS));
+      } catch (InterruptedException e) {
+        throw new GmailServiceException(e);
+      }
+      return new SearchPage(List.of("4", "5"), null, 5);
+    });
+    assertEquals(List.of("1", "2"), stream.take(2));
+    assertEquals(List.of("3"), stream.take(2));
+    assertTrue(stream.hasMore());
+    assertEquals(5, stream.getEstimatedCount());
+    firstPageTaken.countDown();
+    List<String> remaining = new ArrayList<>();
+    while (stream.hasMore()) {
+      remaining.addAll(stream.take(10));
+    }
+    assertEquals(List.of("4", "5"), remaining);
+    assertEquals(5, stream.getReceivedCount());
+  }
+
+  @Test
+  void test_take_SHOULD_throw_WHEN_paging_fails() {
+    MessageIdStream stream = MessageIdStream.startPaging(pageToken -> {
+      throw new GmailServiceException(new IOException("Something went wrong."));
+    });
+    assertThrows(GmailServiceException.class, () -> {
+      while (stream.hasMore()) {
+        stream.take(10);
+      }
+    });
+  }
+}
@@ -0,0 +1,73 @@
+package app.unattach.model;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.gmail.model.Message;
+import org.junit.jupiter.api.Test;
+
+import javax.mail.BodyPart;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.apache.commons.codec.binary.Base64.decodeBase64;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MimeMessageWriterTest {
+  private static String loadOriginal() throws IOException {
+    Message message = TestStore.loadMessage(JacksonFactory.getDefaultInstance(), "1-simple-before");
+    return new String(decodeBase64(message.getRaw()), StandardCharsets.ISO_8859_1);
+  }
+
+  private static MimeMessage parse(String email) throws MessagingException {
+    byte[] bytes = email.getBytes(StandardCharsets.ISO_8859_1);
+    return new MimeMessage(Session.getInstance(new Properties()), new SharedByteArrayInputStream(bytes));
+  }
+
+  private static String write(MimeMessage mimeMessage, Set<Part> modifiedParts)
+      throws IOException, MessagingException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    MimeMessageWriter.write(mimeMessage, modifiedParts, os);
+    return os.toString(StandardCharsets.ISO_8859_1);
+  }
+
+  @Test
+  void test_write_SHOULD_copy_unmodified_parts_verbatim_WHEN_a_part_was_removed()
+      throws IOException, MessagingException {
+    String original = loadOriginal();
+    MimeMessage mimeMessage = parse(original);
+    Multipart multipart = (Multipart) mimeMessage.getContent();
+    multipart.removeBodyPart(1);
+    String output = write(mimeMessage, Set.of(mimeMessage));
+    int alternativeStart = original.indexOf("--000000000000e3d7e905ba5de357");
+    int alternativeEnd = original.indexOf("--000000000000e3d7e905ba5de357--");
+    assertTrue(output.startsWith(original.substring(0, original.indexOf("\r\n\r\n"))));
+    assertTrue(output.contains(original.substring(alternativeStart, alternativeEnd)));
+    assertFalse(output.contains("logo-256.png"));
+    Multipart newMultipart = (Multipart) parse(output).getContent();
+    assertEquals(1, newMultipart.getCount());
+    assertTrue(newMultipart.getBodyPart(0).isMimeType("multipart/alternative"));
+  }
+
+  @Test
+  void test_write_SHOULD_serialize_new_content_WHEN_content_of_a_part_was_replaced()
+      throws IOException, MessagingException {
+    MimeMessage mimeMessage = parse(loadOriginal());
+    Multipart multipart = (Multipart) mimeMessage.getContent();
+    BodyPart textPart = ((Multipart) multipart.getBodyPart(0).getContent()).getBodyPart(0);
+    textPart.setContent("Zdravo, svet! Čšž", "text/plain; charset=utf-8");
+    String output = write(mimeMessage, Set.of(textPart));
+    Multipart newMultipart = (Multipart) parse(output).getContent();
+    assertEquals(2, newMultipart.getCount());
+    BodyPart newTextPart = ((Multipart) newMultipart.getBodyPart(0).getContent()).getBodyPart(0);
+    assertTrue(newTextPart.isMimeType("text/plain"));
+    assertEquals("Zdravo, svet! Čšž", newTextPart.getContent());
+  }
+}
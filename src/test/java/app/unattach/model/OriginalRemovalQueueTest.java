@@ -0,0 +1,124 @@
+package app.unattach.model;
+
+import app.unattach.model.service.FakeGmailService;
+import app.unattach.model.service.GmailServiceException;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OriginalRemovalQueueTest {
+  private static final String EMAIL_ADDRESS = "rok.strnisa@gmail.com";
+
+  private static class RecordingGmailService extends FakeGmailService {
+    private final Set<String> rejectedIds;
+    private final List<String> deletedIds = new ArrayList<>();
+    private final List<String> trashedIds = new ArrayList<>();
+    private boolean failDeleting;
+
+    private RecordingGmailService(Set<String> rejectedIds) {
+      super(EMAIL_ADDRESS, new TreeMap<>(), List.of(), Map.of());
+      this.rejectedIds = rejectedIds;
+    }
+
+    @Override
+    public void removeMessages(List<String> messageIds, boolean permanentlyRemove) throws GmailServiceException {
+      if (permanentlyRemove && failDeleting) {
+        throw new GmailServiceException(new IOException("Backend error."));
+      }
+      if (!Collections.disjoint(messageIds, rejectedIds)) {
+        throw new GmailServiceException(
+            new GoogleJsonResponseException(new HttpResponseException.Builder(400, null, new HttpHeaders()), null));
+      }
+      (permanentlyRemove ? deletedIds : trashedIds).addAll(messageIds);
+    }
+  }
+
+  @Test
+  void test_flush_SHOULD_remove_originals_queued_by_previous_queue_WHEN_config_is_shared()
+      throws GmailServiceException {
+    Config config = new BaseConfig();
+    RecordingGmailService service = new RecordingGmailService(Set.of());
+    OriginalRemovalQueue queue = new OriginalRemovalQueue(config, service, EMAIL_ADDRESS, 0);
+    queue.add("1", true);
+    queue.add("2", false);
+    assertTrue(service.deletedIds.isEmpty());
+    assertTrue(service.trashedIds.isEmpty());
+    new OriginalRemovalQueue(config, service, EMAIL_ADDRESS).flush();
+    assertEquals(List.of("1"), service.deletedIds);
+    assertEquals(List.of("2"), service.trashedIds);
+    assertTrue(config.getOriginalsToDelete(EMAIL_ADDRESS).isEmpty());
+    assertTrue(config.getOriginalsToTrash(EMAIL_ADDRESS).isEmpty());
+  }
+
+  @Test
+  void test_flush_SHOULD_keep_originals_of_other_account_WHEN_signed_in_to_different_account()
+      throws GmailServiceException {
+    Config config = new BaseConfig();
+    RecordingGmailService service = new RecordingGmailService(Set.of());
+    new OriginalRemovalQueue(config, service, "someone.else@gmail.com", 0).add("1", true);
+    new OriginalRemovalQueue(config, service, EMAIL_ADDRESS).flush();
+    assertTrue(service.deletedIds.isEmpty());
+    assertEquals(List.of("1"), config.getOriginalsToDelete("someone.else@gmail.com"));
+  }
+
+  @Test
+  void test_flush_SHOULD_trash_originals_WHEN_deleting_fails() {
+    Config config = new BaseConfig();
+    RecordingGmailService service = new RecordingGmailService(Set.of());
+    service.failDeleting = true;
+    OriginalRemovalQueue queue = new OriginalRemovalQueue(config, service, EMAIL_ADDRESS);
+    queue.add("1", true);
+    queue.add("2", false);
+    assertThrows(GmailServiceException.class, queue::flush);
+    assertEquals(List.of("2"), service.trashedIds);
+    assertEquals(List.of("1"), config.getOriginalsToDelete(EMAIL_ADDRESS));
+  }
+
+  @Test
+  void test_flush_SHOULD_drop_only_rejected_originals_WHEN_gmail_rejects_some() throws GmailServiceException {
+    Config config = new BaseConfig();
+    RecordingGmailService service = new RecordingGmailService(Set.of("3"));
+    OriginalRemovalQueue queue = new OriginalRemovalQueue(config, service, EMAIL_ADDRESS);
+    for (int i = 1; i <= 5; ++i) {
+      queue.add(String.valueOf(i), true);
+    }
+    queue.flush();
+    assertEquals(List.of("1", "2", "4", "5"), service.deletedIds);
+    assertTrue(config.getOriginalsToDelete(EMAIL_ADDRESS).isEmpty());
+  }
+
+  @Test
+  void test_add_SHOULD_keep_full_batch_queued_WHEN_removing_it_fails() throws GmailServiceException {
+    Config config = new BaseConfig();
+    RecordingGmailService service = new RecordingGmailService(Set.of());
+    service.failDeleting = true;
+    OriginalRemovalQueue queue = new OriginalRemovalQueue(config, service, EMAIL_ADDRESS);
+    for (int i = 0; i < OriginalRemovalQueue.MAX_DELETE_BATCH_SIZE; ++i) {
+      queue.add(String.valueOf(i), true);
+    }
+    assertEquals(OriginalRemovalQueue.MAX_DELETE_BATCH_SIZE, config.getOriginalsToDelete(EMAIL_ADDRESS).size());
+    service.failDeleting = false;
+    queue.flush();
+    assertEquals(OriginalRemovalQueue.MAX_DELETE_BATCH_SIZE, service.deletedIds.size());
+  }
+
+  @Test
+  void test_add_SHOULD_not_save_queue_WHEN_saved_within_save_interval() throws GmailServiceException {
+    Config config = new BaseConfig();
+    RecordingGmailService service = new RecordingGmailService(Set.of());
+    OriginalRemovalQueue queue = new OriginalRemovalQueue(config, service, EMAIL_ADDRESS, Long.MAX_VALUE);
+    queue.add("1", true);
+    queue.add("2", false);
+    assertTrue(config.getOriginalsToDelete(EMAIL_ADDRESS).isEmpty());
+    assertTrue(config.getOriginalsToTrash(EMAIL_ADDRESS).isEmpty());
+    queue.flush();
+    assertEquals(List.of("1"), service.deletedIds);
+    assertEquals(List.of("2"), service.trashedIds);
+  }
+}
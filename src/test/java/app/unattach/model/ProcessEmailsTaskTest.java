@@ -0,0 +1,85 @@
+package app.unattach.model;
+
+import app.unattach.controller.LongTaskException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProcessEmailsTaskTest {
+  private static List<Email> getEmails(int count) {
+    List<Email> emails = new ArrayList<>();
+    for (int i = 0; i < count; ++i) {
+      Email email = new Email("id" + i, null, "from@example.com", "to@example.com", "subject " + i,
+          1501545600000L, 1000, Collections.singletonList("data.zip"));
+      email.setStatus(EmailStatus.TO_PROCESS);
+      emails.add(email);
+    }
+    return emails;
+  }
+
+  @Test
+  void test_takeStep_SHOULD_return_every_email_WHEN_some_fail() throws LongTaskException {
+    List<Email> emails = getEmails(10);
+    ProcessEmailsTask task = new ProcessEmailsTask(emails, email -> {
+      if (email.getGmailId().equals("id3")) {
+        throw new IOException("Something went wrong.");
+      }
+      return new ProcessEmailResult("new-" + email.getGmailId(), Set.of());
+    }, () -> {}, ProcessEmailsTask.Pauses.NONE, 3);
+    Set<String> processedIds = new HashSet<>();
+    int failed = 0;
+    while (task.hasMoreSteps()) {
+      ProcessEmailsTask.Result result = task.takeStep();
+      processedIds.add(result.email().getGmailId());
+      if (result.exception() != null) {
+        ++failed;
+      } else {
+        assertEquals("new-" + result.email().getGmailId(), result.processEmailResult().newId());
+        assertEquals(EmailStatus.PROCESSED, result.email().getStatus());
+      }
+    }
+    assertEquals(10, processedIds.size());
+    assertEquals(1, failed);
+  }
+
+  @Test
+  void test_takeStep_SHOULD_process_emails_concurrently_WHEN_given_several_workers() throws LongTaskException {
+    int numberOfWorkers = 4;
+    CountDownLatch allWorkersBusy = new CountDownLatch(numberOfWorkers);
+    ProcessEmailsTask task = new ProcessEmailsTask(getEmails(numberOfWorkers), email -> {
+      allWorkersBusy.countDown();
+      // Only returns once all emails are being processed at the same time.
+      assertTrue(allWorkersBusy.await(10, TimeUnit.SECONDS));
+      return new ProcessEmailResult(null, Set.of());
+    }, () -> {}, ProcessEmailsTask.Pauses.NONE, numberOfWorkers);
+    while (task.hasMoreSteps()) {
+      assertNull(task.takeStep().exception());
+    }
+  }
+
+  @Test
+  void test_stop_SHOULD_finish_emails_in_flight_WHEN_called_mid_run() throws LongTaskException {
+    List<Email> emails = getEmails(10);
+    AtomicInteger finishCount = new AtomicInteger();
+    ProcessEmailsTask task = new ProcessEmailsTask(emails, email -> new ProcessEmailResult(null, Set.of()),
+        finishCount::incrementAndGet, ProcessEmailsTask.Pauses.NONE, 2);
+    task.takeStep();
+    assertEquals(0, finishCount.get());
+    task.stop();
+    int remainingSteps = 0;
+    while (task.hasMoreSteps()) {
+      assertNotNull(task.takeStep());
+      ++remainingSteps;
+    }
+    assertEquals(1, remainingSteps);
+    long processed = emails.stream().filter(email -> email.getStatus() == EmailStatus.PROCESSED).count();
+    assertEquals(2, processed);
+    assertEquals(1, finishCount.get());
+  }
+}
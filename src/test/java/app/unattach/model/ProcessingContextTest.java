@@ -0,0 +1,31 @@
+package app.unattach.model;
+
+import app.unattach.view.Action;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static app.unattach.model.GmailLabel.NO_LABEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ProcessingContextTest {
+  private static ProcessingContext getContext(String downloadedLabelId, String removedLabelId) {
+    ProcessOption processOption =
+        new ProcessOption(Action.DOWNLOAD_AND_REMOVE, false, false, false, downloadedLabelId, removedLabelId);
+    ProcessSettings processSettings = new ProcessSettings(processOption, new File("attachments"),
+        FilenameFactory.DEFAULT_SCHEMA, false, new TreeMap<>());
+    return ProcessingContext.of(processSettings);
+  }
+
+  @Test
+  void test_getUnattachLabelIds_SHOULD_contain_both_labels_WHEN_both_are_set() {
+    assertEquals(Set.of("Label_11", "Label_10"), getContext("Label_11", "Label_10").getUnattachLabelIds());
+  }
+
+  @Test
+  void test_getUnattachLabelIds_SHOULD_contain_removed_label_WHEN_only_it_is_set() {
+    assertEquals(Set.of("Label_10"), getContext(NO_LABEL.id(), "Label_10").getUnattachLabelIds());
+  }
+}
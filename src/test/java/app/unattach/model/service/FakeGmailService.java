@@ -1,24 +1,41 @@
 package app.unattach.model.service;
 
-import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.AbstractInputStreamContent;
 import com.google.api.services.gmail.model.Label;
 import com.google.api.services.gmail.model.Message;
 import com.google.api.services.gmail.model.MessagePart;
+import com.google.api.services.gmail.model.MessagePartBody;
 import com.google.api.services.gmail.model.MessagePartHeader;
+import org.apache.commons.io.IOUtils;
 import org.json.JSONObject;
 
 import javax.mail.Header;
 import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.Session;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeUtility;
+import javax.mail.util.SharedByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
 import java.util.*;
 import java.util.stream.Collectors;
 
+import static org.apache.commons.codec.binary.Base64.decodeBase64;
+import static org.apache.commons.codec.binary.Base64.encodeBase64URLSafeString;
+
 public class FakeGmailService implements GmailService {
+  private static final Session SESSION = Session.getInstance(new Properties());
+
   private final String emailAddress;
   private final SortedMap<String, String> idToLabel;
   private final SortedMap<String, Message> idToMessage = new TreeMap<>();
   private final Map<String, String> beforeIdToAfterId;
+  // The history ID of a message being added is its position in this list, starting at 1.
+  private final List<String> addedMessageIds = new ArrayList<>();
 
   public FakeGmailService(String emailAddress, SortedMap<String, String> idToLabel, List<Message> messages,
                           Map<String, String> beforeIdToAfterId) {
@@ -26,32 +43,40 @@ public class FakeGmailService implements GmailService {
     this.idToLabel = idToLabel;
     for (Message message : messages) {
       idToMessage.put(message.getId(), message);
+      addedMessageIds.add(message.getId());
     }
     this.beforeIdToAfterId = beforeIdToAfterId;
   }
 
   @Override
-  public void addLabel(String messageIds, String labelId) {
-    Message message = idToMessage.get(messageIds);
-    List<String> labelIds = message.getLabelIds();
-    if (labelIds == null) {
-      labelIds = new ArrayList<>();
-      message.setLabelIds(labelIds);
+  public void addLabel(List<String> messageIds, String labelId) throws GmailServiceException {
+    for (String messageId : messageIds) {
+      Message message = idToMessage.get(messageId);
+      List<String> labelIds = message.getLabelIds();
+      if (labelIds == null) {
+        labelIds = new ArrayList<>();
+        message.setLabelIds(labelIds);
+      }
+      labelIds.add(labelId);
     }
-    labelIds.add(labelId);
   }
 
   @Override
-  public void batchGetMetadata(List<String> messageIds, JsonBatchCallback<Message> callback)
-      throws GmailServiceException {
+  public void batchGetMetadata(List<String> messageIds, MetadataCallback callback) throws GmailServiceException {
     for (String messageId : messageIds) {
-      try {
-        Message message = idToMessage.get(messageId);
-        Message result = filterKeys(message, "id", "internalDate", "labelIds", "payload", "sizeEstimate");
-        callback.onSuccess(result, null);
-      } catch (IOException e) {
-        throw new GmailServiceException(e);
+      Message message = idToMessage.get(messageId);
+      if (message == null) {
+        GoogleJsonError error = new GoogleJsonError();
+        error.setCode(404);
+        error.setMessage("Requested entity was not found.");
+        callback.onFailure(messageId, error);
+        continue;
+      }
+      Message metadata = filterKeys(message, "id", "internalDate", "labelIds", "payload", "sizeEstimate");
+      if (message.getRaw() != null) {
+        metadata.setPayload(getStructure(message));
       }
+      callback.onSuccess(metadata);
     }
   }
 
@@ -64,9 +89,9 @@ public class FakeGmailService implements GmailService {
   }
 
   @Override
-  public void removeMessage(String messageId, boolean permanentlyRemove) {
+  public void removeMessages(List<String> messageIds, boolean permanentlyRemove) throws GmailServiceException {
     // TODO: implement 'trash'
-    idToMessage.remove(messageId);
+    messageIds.forEach(idToMessage::remove);
   }
 
   @Override
@@ -74,6 +99,11 @@ public class FakeGmailService implements GmailService {
     return emailAddress;
   }
 
+  @Override
+  public String getHistoryId() {
+    return String.valueOf(addedMessageIds.size());
+  }
+
   @Override
   public SortedMap<String, String> getIdToLabel() {
     return new TreeMap<>(idToLabel);
@@ -85,17 +115,83 @@ public class FakeGmailService implements GmailService {
   }
 
   @Override
-  public Message getRawMessage(String messageId) throws GmailServiceException {
-    return filterKeys(idToMessage.get(messageId),
+  public Message getMessageStructure(String messageId) throws GmailServiceException {
+    Message message = idToMessage.get(messageId);
+    return new Message().setId(messageId).setLabelIds(message.getLabelIds()).setPayload(getStructure(message));
+  }
+
+  private MessagePart getStructure(Message message) throws GmailServiceException {
+    try {
+      return partToMessagePart(getMimeMessage(message), "");
+    } catch (MessagingException | IOException e) {
+      throw new GmailServiceException(e);
+    }
+  }
+
+  /**
+   * Describes a MIME part the way Gmail does, using the part's ID as the attachment ID.
+   */
+  private MessagePart partToMessagePart(Part part, String partId) throws MessagingException, IOException {
+    MessagePart messagePart = new MessagePart();
+    messagePart.setPartId(partId);
+    messagePart.setMimeType(part.getContentType().split(";")[0].trim().toLowerCase());
+    String filename = part.getFileName() == null ? "" : MimeUtility.decodeText(part.getFileName());
+    messagePart.setFilename(filename);
+    messagePart.setHeaders(Collections.list(part.getAllHeaders()).stream().map(this::headerToMessagePartHeader)
+        .collect(Collectors.toList()));
+    if (part.getContent() instanceof Multipart multipart) {
+      List<MessagePart> parts = new ArrayList<>();
+      for (int i = 0; i < multipart.getCount(); ++i) {
+        parts.add(partToMessagePart(multipart.getBodyPart(i), partId.isEmpty() ? String.valueOf(i) : partId + "." + i));
+      }
+      messagePart.setParts(parts);
+    } else {
+      MessagePartBody body = new MessagePartBody();
+      body.setSize(part.getSize());
+      if (!filename.isEmpty()) {
+        body.setAttachmentId(partId);
+      }
+      messagePart.setBody(body);
+    }
+    return messagePart;
+  }
+
+  @Override
+  public DecodedContent getAttachment(String messageId, String attachmentId) throws GmailServiceException {
+    try {
+      Part part = getMimeMessage(idToMessage.get(messageId));
+      if (!attachmentId.isEmpty()) {
+        for (String index : attachmentId.split("\\.")) {
+          part = ((Multipart) part.getContent()).getBodyPart(Integer.parseInt(index));
+        }
+      }
+      try (InputStream is = part.getInputStream()) {
+        return DecodedContent.of(encodeBase64URLSafeString(IOUtils.toByteArray(is)));
+      }
+    } catch (MessagingException | IOException e) {
+      throw new GmailServiceException(e);
+    }
+  }
+
+  @Override
+  public RawMessage getRawMessage(String messageId) throws GmailServiceException {
+    Message message = filterKeys(idToMessage.get(messageId),
         "historyId", "id", "internalDate", "raw", "sizeEstimate", "snippet", "threadId");
+    try {
+      return RawMessage.of(message);
+    } catch (IOException e) {
+      throw new GmailServiceException(e);
+    }
   }
 
   @Override
-  public Message insertMessage(Message message) throws GmailServiceException {
+  public Message insertMessage(Message message, AbstractInputStreamContent mimeContent)
+      throws GmailServiceException {
     String afterId = beforeIdToAfterId.get(message.getId());
     Message afterMessage = message.clone().setId(afterId);
-    try {
-      MimeMessage mimeMessage = GmailService.getMimeMessage(afterMessage);
+    try (InputStream is = mimeContent.getInputStream()) {
+      afterMessage.setRaw(encodeBase64URLSafeString(is.readAllBytes()));
+      MimeMessage mimeMessage = getMimeMessage(afterMessage);
       List<MessagePartHeader> messagePartHeaders = Collections.list(mimeMessage.getAllHeaders()).stream()
           .map(this::headerToMessagePartHeader).collect(Collectors.toList());
       MessagePart payload = new MessagePart();
@@ -108,6 +204,7 @@ public class FakeGmailService implements GmailService {
       throw new GmailServiceException(e);
     }
     idToMessage.put(afterId, afterMessage);
+    addedMessageIds.add(afterId);
     return filterKeys(afterMessage, "id", "labelIds", "threadId");
   }
 
@@ -119,15 +216,49 @@ public class FakeGmailService implements GmailService {
   }
 
   @Override
-  public List<Message> search(String query) throws GmailServiceException {
-    List<Message> result = new ArrayList<>();
+  public HistoryPage listHistory(String startHistoryId, Set<HistoryType> historyTypes, String pageToken) {
+    int start = Integer.parseInt(startHistoryId);
+    if (start < 0 || start > addedMessageIds.size()) {
+      return null;
+    }
+    // Only additions are tracked.
+    if (!historyTypes.contains(HistoryType.MESSAGE_ADDED)) {
+      return new HistoryPage(List.of(), null);
+    }
+    return new HistoryPage(new ArrayList<>(addedMessageIds.subList(start, addedMessageIds.size())), null);
+  }
+
+  @Override
+  public SearchPage search(String query, String pageToken) {
+    List<String> result = new ArrayList<>();
     for (Message message : idToMessage.values()) {
       Map<String, String> headerMap = GmailService.getHeaderMap(message);
       if (headerMap.get("subject").toLowerCase().contains(query.toLowerCase())) {
-        result.add(filterKeys(message, "id", "internalDate", "labelIds", "payload", "sizeEstimate"));
+        result.add(message.getId());
       }
     }
-    return result;
+    return new SearchPage(result, null, result.size());
+  }
+
+  @Override
+  public void logRunStatistics() {}
+
+  @Override
+  public Instant getPausedUntil() {
+    return null;
+  }
+
+  @Override
+  public void cancelPauses() {}
+
+  public static MimeMessage getMimeMessage(Message message) throws MessagingException, IOException {
+    String rawBefore = message.getRaw();
+    if (rawBefore == null) {
+      throw new IOException("Unable to extract the contents of the email.");
+    }
+    byte[] emailBytes = decodeBase64(rawBefore);
+    // Body parts are parsed as views of the decoded email, rather than copies of it.
+    return new MimeMessage(SESSION, new SharedByteArrayInputStream(emailBytes));
   }
 
   /**
@@ -0,0 +1,80 @@
+package app.unattach.model.service;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpBackOffIOExceptionHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.gmail.Gmail;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LiveGmailServiceManagerTest {
+  private static LiveGmailServiceManager getManager(boolean compressResponses) {
+    HttpSettings defaults = HttpSettings.DEFAULT;
+    HttpSettings httpSettings = new HttpSettings(defaults.maxConnections(), defaults.keepAliveMillis(),
+        compressResponses, defaults.connectTimeoutMillis(), defaults.readTimeoutMillis(),
+        defaults.batchReadTimeoutMillis(), defaults.mediaReadTimeoutMillis());
+    return new LiveGmailServiceManager(httpSettings, new BaseQuotaLedger());
+  }
+
+  private static HttpRequest buildPutRequest(String url) throws IOException {
+    HttpRequestFactory requestFactory =
+        new MockHttpTransport().createRequestFactory(getManager(true).configureRequest(httpRequest -> {}));
+    return requestFactory.buildPutRequest(new GenericUrl(url), null);
+  }
+
+  private static MockLowLevelHttpRequest getProfile(boolean compressResponses) throws IOException {
+    LiveGmailServiceManager manager = getManager(compressResponses);
+    MockLowLevelHttpRequest lowLevelHttpRequest = new MockLowLevelHttpRequest()
+        .setResponse(new MockLowLevelHttpResponse().setContentType(Json.MEDIA_TYPE).setContent("{}"));
+    MockHttpTransport httpTransport = new MockHttpTransport.Builder()
+        .setLowLevelHttpRequest(lowLevelHttpRequest).build();
+    // Stands in for the credential, which signs requests in an interceptor.
+    HttpRequestInitializer credential = httpRequest ->
+        httpRequest.setInterceptor(request -> request.getHeaders().setAuthorization("Bearer token"));
+    Gmail gmail = new Gmail.Builder(httpTransport, JacksonFactory.getDefaultInstance(),
+        manager.configureRequest(credential)).setApplicationName("Unattach").build();
+    gmail.users().getProfile("me").execute();
+    return lowLevelHttpRequest;
+  }
+
+  @Test
+  void test_configureRequest_SHOULD_not_request_gzip_WHEN_compression_is_disabled() throws IOException {
+    MockLowLevelHttpRequest request = getProfile(false);
+    assertTrue(request.getHeaderValues("Accept-Encoding").isEmpty());
+    assertEquals(List.of("Bearer token"), request.getHeaderValues("Authorization"));
+  }
+
+  @Test
+  void test_configureRequest_SHOULD_request_gzip_WHEN_compression_is_enabled() throws IOException {
+    MockLowLevelHttpRequest request = getProfile(true);
+    assertEquals(List.of("gzip"), request.getHeaderValues("Accept-Encoding"));
+    assertEquals(List.of("Bearer token"), request.getHeaderValues("Authorization"));
+  }
+
+  @Test
+  void test_configureRequest_SHOULD_retry_with_backoff_WHEN_uploading_chunk_of_resumable_upload() throws IOException {
+    HttpRequest request = buildPutRequest(
+        "https://gmail.googleapis.com/upload/gmail/v1/users/me/messages?uploadType=resumable&upload_id=123");
+    assertTrue(request.getIOExceptionHandler() instanceof HttpBackOffIOExceptionHandler);
+    assertNotNull(request.getUnsuccessfulResponseHandler());
+  }
+
+  @Test
+  void test_configureRequest_SHOULD_not_retry_WHEN_uploading_in_one_request() throws IOException {
+    HttpRequest request = buildPutRequest(
+        "https://gmail.googleapis.com/upload/gmail/v1/users/me/messages?uploadType=multipart");
+    assertNull(request.getIOExceptionHandler());
+    assertNull(request.getUnsuccessfulResponseHandler());
+  }
+}
@@ -0,0 +1,75 @@
+package app.unattach.model.service;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.gmail.Gmail;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class LiveGmailServiceTest {
+  private static class RecordingHttpTransport extends MockHttpTransport {
+    private final String responseJson;
+    private final List<String> urls = new ArrayList<>();
+
+    private RecordingHttpTransport(String responseJson) {
+      this.responseJson = responseJson;
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      urls.add(url);
+      return new MockLowLevelHttpRequest(url)
+          .setResponse(new MockLowLevelHttpResponse().setContentType(Json.MEDIA_TYPE).setContent(responseJson));
+    }
+  }
+
+  private static LiveGmailService getService(RecordingHttpTransport httpTransport, QuotaBudget quotaBudget) {
+    Gmail gmail = new Gmail.Builder(httpTransport, JacksonFactory.getDefaultInstance(), null)
+        .setApplicationName("Unattach").build();
+    return new LiveGmailService(gmail, new QuotaScheduler(), new RetryPolicy(1, 1, 1), quotaBudget);
+  }
+
+  private static QuotaBudget getQuotaBudget() {
+    QuotaBudget quotaBudget = new QuotaBudget(new BaseQuotaLedger());
+    quotaBudget.setAccount("rok.strnisa@gmail.com");
+    return quotaBudget;
+  }
+
+  @Test
+  void test_getRawMessage_SHOULD_meter_both_downloads_WHEN_email_is_not_padded()
+      throws GmailServiceException, IOException {
+    // Gmail pads the email, which is what decoding it as it arrives relies on.
+    RecordingHttpTransport httpTransport = new RecordingHttpTransport("{\"id\":\"1\",\"raw\":\"aGk\"}");
+    QuotaBudget quotaBudget = getQuotaBudget();
+    try (RawMessage rawMessage = getService(httpTransport, quotaBudget).getRawMessage("1");
+         InputStream is = rawMessage.getInputStream()) {
+      assertEquals("hi", new String(is.readAllBytes(), StandardCharsets.US_ASCII));
+    }
+    assertEquals(2, httpTransport.urls.size());
+    assertEquals(new DailyUsage(10, 2, 0), quotaBudget.getUsage());
+  }
+
+  @Test
+  void test_getAttachment_SHOULD_meter_both_downloads_WHEN_attachment_is_not_padded()
+      throws GmailServiceException, IOException {
+    RecordingHttpTransport httpTransport = new RecordingHttpTransport("{\"data\":\"aGk\"}");
+    QuotaBudget quotaBudget = getQuotaBudget();
+    try (DecodedContent attachment = getService(httpTransport, quotaBudget).getAttachment("1", "2");
+         InputStream is = attachment.getInputStream()) {
+      assertEquals("hi", new String(is.readAllBytes(), StandardCharsets.US_ASCII));
+    }
+    assertEquals(2, httpTransport.urls.size());
+    assertEquals(new DailyUsage(10, 2, 0), quotaBudget.getUsage());
+  }
+}
@@ -0,0 +1,75 @@
+package app.unattach.model.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuotaBudgetTest {
+  private static final DailyUsage LIMITS = new DailyUsage(Long.MAX_VALUE, 1000, 100);
+
+  private static Clock getClock(int hour) {
+    ZonedDateTime time = ZonedDateTime.of(2021, 9, 1, hour, 0, 0, 0, QuotaBudget.GMAIL_TIME_ZONE);
+    return Clock.fixed(time.toInstant(), QuotaBudget.GMAIL_TIME_ZONE);
+  }
+
+  @Test
+  void test_record_SHOULD_meter_usage_per_account_and_day_WHEN_account_is_known() {
+    QuotaLedger ledger = new BaseQuotaLedger();
+    QuotaBudget budget = new QuotaBudget(ledger, LIMITS, getClock(23));
+    budget.record(new DailyUsage(1, 0, 0));
+    budget.setAccount("a@b.c");
+    budget.record(new DailyUsage(5, 10, 0));
+    budget.record(new DailyUsage(25, 0, 20));
+    assertEquals(new DailyUsage(30, 10, 20), budget.getUsage());
+    assertEquals(new DailyUsage(30, 10, 20), ledger.getUsage("a@b.c", LocalDate.of(2021, 9, 1)));
+    // The next day starts afresh, with the same ledger.
+    QuotaBudget nextDayBudget = new QuotaBudget(ledger, LIMITS, Clock.offset(getClock(23), Duration.ofHours(2)));
+    nextDayBudget.setAccount("a@b.c");
+    nextDayBudget.record(new DailyUsage(5, 0, 0));
+    assertEquals(new DailyUsage(5, 0, 0), nextDayBudget.getUsage());
+    assertEquals(DailyUsage.NONE, ledger.getUsage("a@b.c", LocalDate.of(2021, 9, 1)));
+  }
+
+  @Test
+  void test_getPauseMillis_SHOULD_wait_for_midnight_pacific_time_WHEN_limit_would_be_exceeded() {
+    QuotaBudget budget = new QuotaBudget(new BaseQuotaLedger(), LIMITS, getClock(22));
+    budget.setAccount("a@b.c");
+    budget.record(new DailyUsage(5, 0, 90));
+    assertEquals(0, budget.getPauseMillis(new DailyUsage(0, 0, 10)));
+    assertEquals(TimeUnit.HOURS.toMillis(2), budget.getPauseMillis(new DailyUsage(0, 0, 11)));
+  }
+
+  @Test
+  void test_cancelPauses_SHOULD_end_pause_WHEN_call_waits_for_limits_to_reset() throws Exception {
+    QuotaBudget budget = new QuotaBudget(new BaseQuotaLedger(), LIMITS, getClock(22));
+    budget.setAccount("a@b.c");
+    budget.record(new DailyUsage(5, 0, 90));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> upload = executor.submit(() -> {
+        budget.awaitUpload(11);
+        return null;
+      });
+      while (budget.getPausedUntil() == null) {
+        TimeUnit.MILLISECONDS.sleep(10);
+      }
+      assertEquals(getClock(22).instant().plus(Duration.ofHours(2)), budget.getPausedUntil());
+      budget.cancelPauses();
+      ExecutionException e = assertThrows(ExecutionException.class, () -> upload.get(10, TimeUnit.SECONDS));
+      assertTrue(e.getCause() instanceof InterruptedException);
+      assertNull(budget.getPausedUntil());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package app.unattach.model.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class QuotaSchedulerTest {
+  @Test
+  void test_acquire_SHOULD_not_wait_WHEN_units_are_available() throws InterruptedException {
+    QuotaScheduler quotaScheduler = new QuotaScheduler(1000);
+    long start = System.nanoTime();
+    quotaScheduler.acquire(400);
+    quotaScheduler.acquire(400);
+    long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+    assertTrue(elapsedMillis < 100, "Waited for " + elapsedMillis + "ms.");
+  }
+
+  @Test
+  void test_acquire_SHOULD_wait_for_refill_WHEN_units_are_exhausted() throws InterruptedException {
+    QuotaScheduler quotaScheduler = new QuotaScheduler(1000);
+    quotaScheduler.acquire(1000);
+    long start = System.nanoTime();
+    quotaScheduler.acquire(300);
+    long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+    assertTrue(elapsedMillis >= 250, "Waited for " + elapsedMillis + "ms.");
+  }
+
+  @Test
+  void test_acquire_SHOULD_make_other_callers_wait_WHEN_in_debt() throws InterruptedException {
+    QuotaScheduler quotaScheduler = new QuotaScheduler(1000);
+    Thread expensiveCaller = new Thread(() -> {
+      try {
+        quotaScheduler.acquire(1500);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    expensiveCaller.start();
+    while (quotaScheduler.getAvailableUnits() > 0) {
+      Thread.onSpinWait();
+    }
+    long start = System.nanoTime();
+    quotaScheduler.acquire(1);
+    long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+    expensiveCaller.join();
+    assertTrue(elapsedMillis >= 250, "Waited for " + elapsedMillis + "ms.");
+  }
+}
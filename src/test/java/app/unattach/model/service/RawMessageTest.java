@@ -0,0 +1,95 @@
+package app.unattach.model.service;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import javax.activation.DataHandler;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
+import javax.mail.util.SharedFileInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.apache.commons.codec.binary.Base64.encodeBase64URLSafeString;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RawMessageTest {
+  private static RawMessage read(byte[] email) throws IOException {
+    // Gmail pads the raw content, unlike encodeBase64URLSafeString.
+    String raw = encodeBase64URLSafeString(email);
+    raw += "=".repeat((4 - raw.length() % 4) % 4);
+    String json = "{\"id\":\"123\",\"labelIds\":[\"INBOX\",\"UNREAD\"],\"raw\":\"" + raw + "\",\"sizeEstimate\":" +
+        email.length + "}";
+    return RawMessage.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  private static void assertContent(byte[] expected, RawMessage rawMessage) throws IOException {
+    assertEquals(expected.length, rawMessage.getSize());
+    try (InputStream is = rawMessage.getInputStream()) {
+      assertArrayEquals(expected, is.readAllBytes());
+    }
+  }
+
+  @Test
+  void test_read_SHOULD_decode_email_and_keep_metadata_WHEN_email_is_small() throws IOException {
+    byte[] email = "Subject: Hi\r\n\r\nHello.\r\n".getBytes(StandardCharsets.US_ASCII);
+    try (RawMessage rawMessage = read(email)) {
+      assertEquals("123", rawMessage.getMetadata().getId());
+      assertEquals(List.of("INBOX", "UNREAD"), rawMessage.getMetadata().getLabelIds());
+      assertNull(rawMessage.getMetadata().getRaw());
+      assertContent(email, rawMessage);
+    }
+  }
+
+  @Test
+  void test_read_SHOULD_spill_email_to_file_and_remove_it_on_close_WHEN_email_is_large() throws IOException {
+    byte[] email = new byte[DecodedContent.MAX_IN_MEMORY_SIZE + 1];
+    new Random(0).nextBytes(email);
+    RawMessage rawMessage = read(email);
+    assertContent(email, rawMessage);
+    rawMessage.close();
+    // Only the file-backed content fails to be read once closed.
+    assertThrows(IOException.class, rawMessage::getInputStream);
+  }
+
+  @Test
+  void test_getMimeMessage_SHOULD_read_body_parts_from_file_WHEN_email_is_large()
+      throws IOException, MessagingException {
+    byte[] attachment = new byte[DecodedContent.MAX_IN_MEMORY_SIZE];
+    new Random(0).nextBytes(attachment);
+    MimeMultipart multipart = new MimeMultipart();
+    MimeBodyPart textPart = new MimeBodyPart();
+    textPart.setText("Hello.");
+    multipart.addBodyPart(textPart);
+    MimeBodyPart attachmentPart = new MimeBodyPart();
+    attachmentPart.setDataHandler(new DataHandler(new ByteArrayDataSource(attachment, "application/octet-stream")));
+    attachmentPart.setFileName("random.bin");
+    multipart.addBodyPart(attachmentPart);
+    MimeMessage original = new MimeMessage(Session.getInstance(new Properties()));
+    original.setContent(multipart);
+    original.saveChanges();
+    ByteArrayOutputStream email = new ByteArrayOutputStream();
+    original.writeTo(email);
+    try (RawMessage rawMessage = read(email.toByteArray())) {
+      MimeMessage mimeMessage = rawMessage.getMimeMessage(Session.getInstance(new Properties()));
+      MimeBodyPart part = (MimeBodyPart) ((Multipart) mimeMessage.getContent()).getBodyPart(1);
+      try (InputStream rawInputStream = part.getRawInputStream()) {
+        assertTrue(rawInputStream instanceof SharedFileInputStream);
+      }
+      try (InputStream inputStream = part.getInputStream()) {
+        assertArrayEquals(attachment, IOUtils.toByteArray(inputStream));
+      }
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package app.unattach.model.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetryPolicyTest {
+  private static HttpResponseException getHttpResponseException(int statusCode, String retryAfter) {
+    HttpHeaders headers = new HttpHeaders().setRetryAfter(retryAfter);
+    return new HttpResponseException.Builder(statusCode, null, headers).build();
+  }
+
+  private static GoogleJsonResponseException getForbiddenException(String reason) {
+    GoogleJsonError.ErrorInfo errorInfo = new GoogleJsonError.ErrorInfo();
+    errorInfo.setReason(reason);
+    GoogleJsonError details = new GoogleJsonError();
+    details.setCode(403);
+    details.setErrors(List.of(errorInfo));
+    return new GoogleJsonResponseException(new HttpResponseException.Builder(403, null, new HttpHeaders()), details);
+  }
+
+  @Test
+  void test_classify_SHOULD_recognise_transient_errors_WHEN_given_various_failures() {
+    assertEquals(RetryPolicy.ErrorKind.RATE_LIMIT, RetryPolicy.classify(getHttpResponseException(429, null)));
+    assertEquals(RetryPolicy.ErrorKind.RATE_LIMIT, RetryPolicy.classify(getForbiddenException("rateLimitExceeded")));
+    assertEquals(RetryPolicy.ErrorKind.SERVER_ERROR, RetryPolicy.classify(getHttpResponseException(503, null)));
+    assertEquals(RetryPolicy.ErrorKind.TIMEOUT, RetryPolicy.classify(new SocketTimeoutException()));
+    assertEquals(RetryPolicy.ErrorKind.PERMANENT, RetryPolicy.classify(getForbiddenException("forbidden")));
+    assertEquals(RetryPolicy.ErrorKind.PERMANENT, RetryPolicy.classify(getHttpResponseException(404, null)));
+    assertEquals(RetryPolicy.ErrorKind.PERMANENT, RetryPolicy.classify(new IOException()));
+  }
+
+  @Test
+  void test_execute_SHOULD_retry_WHEN_rate_limited() throws IOException, InterruptedException {
+    RetryPolicy retryPolicy = new RetryPolicy(3, 1, 10);
+    AtomicInteger attempts = new AtomicInteger();
+    String result = retryPolicy.execute(true, () -> {
+      if (attempts.incrementAndGet() < 3) {
+        throw getHttpResponseException(429, null);
+      }
+      return "done";
+    });
+    assertEquals("done", result);
+    assertEquals(2, retryPolicy.getRetries());
+    assertEquals(2, retryPolicy.getRateLimitRetries());
+  }
+
+  @Test
+  void test_execute_SHOULD_give_up_WHEN_attempts_are_exhausted() {
+    RetryPolicy retryPolicy = new RetryPolicy(3, 1, 10);
+    AtomicInteger attempts = new AtomicInteger();
+    assertThrows(HttpResponseException.class, () -> retryPolicy.execute(true, () -> {
+      attempts.incrementAndGet();
+      throw getHttpResponseException(500, null);
+    }));
+    assertEquals(3, attempts.get());
+    assertEquals(1, retryPolicy.getFailuresAfterRetries());
+  }
+
+  @Test
+  void test_execute_SHOULD_not_retry_WHEN_non_idempotent_call_times_out() {
+    RetryPolicy retryPolicy = new RetryPolicy(3, 1, 10);
+    AtomicInteger attempts = new AtomicInteger();
+    assertThrows(SocketTimeoutException.class, () -> retryPolicy.execute(false, () -> {
+      attempts.incrementAndGet();
+      throw new SocketTimeoutException();
+    }));
+    assertEquals(1, attempts.get());
+  }
+
+  @Test
+  void test_execute_SHOULD_not_retry_WHEN_non_idempotent_call_fails_with_server_error() {
+    RetryPolicy retryPolicy = new RetryPolicy(3, 1, 10);
+    AtomicInteger attempts = new AtomicInteger();
+    assertThrows(HttpResponseException.class, () -> retryPolicy.execute(false, () -> {
+      attempts.incrementAndGet();
+      throw getHttpResponseException(503, null);
+    }));
+    assertEquals(1, attempts.get());
+  }
+
+  @Test
+  void test_execute_SHOULD_retry_WHEN_non_idempotent_call_is_rate_limited() throws IOException, InterruptedException {
+    RetryPolicy retryPolicy = new RetryPolicy(3, 1, 10);
+    AtomicInteger attempts = new AtomicInteger();
+    String result = retryPolicy.execute(false, () -> {
+      if (attempts.incrementAndGet() == 1) {
+        throw getHttpResponseException(429, null);
+      }
+      return "ok";
+    });
+    assertEquals("ok", result);
+    assertEquals(2, attempts.get());
+  }
+
+  @Test
+  void test_getDelayMillis_SHOULD_honour_retry_after_WHEN_present() {
+    RetryPolicy retryPolicy = new RetryPolicy(6, 1000, 32000);
+    assertEquals(7000, retryPolicy.getDelayMillis(1, getHttpResponseException(429, "7")));
+    assertEquals(32000, retryPolicy.getDelayMillis(1, getHttpResponseException(429, "3600")));
+    long delayMillis = retryPolicy.getDelayMillis(3, getHttpResponseException(503, null));
+    assertTrue(delayMillis >= 2000 && delayMillis <= 4000, "Delay was " + delayMillis + "ms.");
+  }
+}
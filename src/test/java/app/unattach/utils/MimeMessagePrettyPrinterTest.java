@@ -2,7 +2,7 @@ package app.unattach.utils;
 
 import app.unattach.model.EmailProcessor;
 import app.unattach.model.TestStore;
-import app.unattach.model.service.GmailService;
+import app.unattach.model.service.FakeGmailService;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.services.gmail.model.Message;
@@ -21,7 +21,7 @@ public class MimeMessagePrettyPrinterTest {
       throws IOException, MessagingException {
     JsonFactory factory = JacksonFactory.getDefaultInstance();
     Message message = TestStore.loadMessage(factory, "1-simple-before");
-    MimeMessage mimeMessage = GmailService.getMimeMessage(message);
+    MimeMessage mimeMessage = FakeGmailService.getMimeMessage(message);
     String output = MimeMessagePrettyPrinter.prettyPrint(mimeMessage);
     assertEquals("""
         multipart/mixed; boundary="000000000000e3d7ec05ba5de359" (disposition: null)
@@ -37,7 +37,7 @@ public class MimeMessagePrettyPrinterTest {
       throws IOException, MessagingException {
     JsonFactory factory = JacksonFactory.getDefaultInstance();
     Message message = TestStore.loadMessage(factory, "1-simple-before");
-    MimeMessage mimeMessage = GmailService.getMimeMessage(message);
+    MimeMessage mimeMessage = FakeGmailService.getMimeMessage(message);
     EmailProcessor.CheckedFunction<Part> replaceContentType =
         EmailProcessor.replaceContentType("UTF-8", "iso-8859-8-i", false);
     EmailProcessor.explore(mimeMessage, replaceContentType);
@@ -50,4 +50,14 @@ public class MimeMessagePrettyPrinterTest {
         `-- image/png; name="logo-256.png" (disposition: attachment)
         """.trim(), output);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void test_summarize_SHOULD_list_parts_on_one_line_WHEN_given_test_store_input()
+      throws IOException, MessagingException {
+    JsonFactory factory = JacksonFactory.getDefaultInstance();
+    Message message = TestStore.loadMessage(factory, "1-simple-before");
+    MimeMessage mimeMessage = FakeGmailService.getMimeMessage(message);
+    assertEquals("multipart/mixed(multipart/alternative(text/plain, text/html), " +
+        "image/png attachment 'logo-256.png')", MimeMessagePrettyPrinter.summarize(mimeMessage));
+  }
+}